@@ -1,10 +1,16 @@
 package com.matchscope;
 
+import com.matchscope.profile.ProfilerBackend;
 import org.apache.commons.cli.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 enum AnalysisOption {
     DIRECTORY,
-    PAIR
+    PAIR,
+    PROFILE
 }
 
 public class CLIParser {
@@ -14,6 +20,14 @@ public class CLIParser {
     private String androidJAR;
     private static String wordlistPath;
     private String targetDir;
+    private String cacheDir;
+    private long cacheSize = 2048;
+    private int workerNum = 0;
+    private long workerHeap = 4096;
+    private String profileAPK;
+    private ProfilerBackend profilerBackend = ProfilerBackend.SOOT;
+    private boolean sootProfileOnly = false;
+    private int matchThreadNum = Runtime.getRuntime().availableProcessors();
     private AnalysisOption analysisOption;
 
     public static class CLIArgs {
@@ -25,6 +39,20 @@ public class CLIParser {
 
         static final String ANALYSE_APK_DIR = "d";
         static final String ANALYSE_APK_PAIR = "p";
+
+        static final String PROFILE_CACHE_DIR = "c";
+        static final String PROFILE_CACHE_DIR_L = "cache";
+        static final String PROFILE_CACHE_SIZE_L = "cache-size";
+
+        static final String PROFILE_WORKER_NUM = "j";
+        static final String PROFILE_WORKER_NUM_L = "workers";
+        static final String PROFILE_WORKER_HEAP_L = "worker-heap";
+        static final String PROFILE_WORKER_L = "profile-worker";
+
+        static final String PROFILER_BACKEND_L = "profiler";
+        static final String SOOT_PROFILE_ONLY_L = "soot-profile-only";
+
+        static final String MATCH_THREAD_NUM_L = "match-threads";
     }
 
     public CLIParser(String[] args) {
@@ -64,10 +92,82 @@ public class CLIParser {
                 .desc("analyse a pair of apks")
                 .build();
 
+        Option cacheDir = Option.builder(CLIArgs.PROFILE_CACHE_DIR)
+                .argName("directory")
+                .required(false)
+                .longOpt(CLIArgs.PROFILE_CACHE_DIR_L)
+                .hasArg()
+                .desc("directory to cache app profiles in")
+                .build();
+
+        Option cacheSize = Option.builder()
+                .argName("MB")
+                .required(false)
+                .longOpt(CLIArgs.PROFILE_CACHE_SIZE_L)
+                .hasArg()
+                .desc("size budget of the profile cache in MB, default 2048")
+                .build();
+
+        Option workerNum = Option.builder(CLIArgs.PROFILE_WORKER_NUM)
+                .argName("num")
+                .required(false)
+                .longOpt(CLIArgs.PROFILE_WORKER_NUM_L)
+                .hasArg()
+                .desc("number of child JVMs profiling apks concurrently in directory mode")
+                .build();
+
+        Option workerHeap = Option.builder()
+                .argName("MB")
+                .required(false)
+                .longOpt(CLIArgs.PROFILE_WORKER_HEAP_L)
+                .hasArg()
+                .desc("max heap of each profiling JVM in MB, default 4096")
+                .build();
+
+        Option profilerBackend = Option.builder()
+                .argName("soot|dex")
+                .required(false)
+                .longOpt(CLIArgs.PROFILER_BACKEND_L)
+                .hasArg()
+                .desc("profiler to use, default soot. dex is much faster but its level2 hashes differ from soot")
+                .build();
+
+        Option sootProfileOnly = Option.builder()
+                .required(false)
+                .longOpt(CLIArgs.SOOT_PROFILE_ONLY_L)
+                .desc("experimental: load apks into soot without running the whole program packs. Not benchmarked yet, "
+                        + "the profiles and match results may differ from the default configuration")
+                .build();
+
+        Option matchThreadNum = Option.builder()
+                .argName("num")
+                .required(false)
+                .longOpt(CLIArgs.MATCH_THREAD_NUM_L)
+                .hasArg()
+                .desc("number of threads matching methods and pairwise classes, default the number of cores")
+                .build();
+
+        // used internally to start a profiling child JVM
+        Option profileWorker = Option.builder()
+                .argName("apk")
+                .required(false)
+                .longOpt(CLIArgs.PROFILE_WORKER_L)
+                .hasArg()
+                .desc("profile one apk and write the profile to stdout")
+                .build();
+
         options.addOption(sdkPath);
         options.addOption(wordlist);
         options.addOption(analysePair);
         options.addOption(analyseDir);
+        options.addOption(cacheDir);
+        options.addOption(cacheSize);
+        options.addOption(workerNum);
+        options.addOption(workerHeap);
+        options.addOption(profilerBackend);
+        options.addOption(sootProfileOnly);
+        options.addOption(matchThreadNum);
+        options.addOption(profileWorker);
     }
 
 
@@ -107,7 +207,61 @@ public class CLIParser {
 
             }
 
-            if (cmd.hasOption(CLIArgs.ANALYSE_APK_DIR)) {
+            if (cmd.hasOption(CLIArgs.PROFILE_CACHE_DIR)) {
+                cacheDir = cmd.getOptionValue(CLIArgs.PROFILE_CACHE_DIR);
+            }
+
+            if (cmd.hasOption(CLIArgs.PROFILE_CACHE_SIZE_L)) {
+                String size = cmd.getOptionValue(CLIArgs.PROFILE_CACHE_SIZE_L);
+                try {
+                    cacheSize = Long.parseLong(size);
+                } catch (NumberFormatException e) {
+                    die("Invalid cache size: " + size);
+                }
+            }
+
+            if (cmd.hasOption(CLIArgs.PROFILE_WORKER_NUM)) {
+                String num = cmd.getOptionValue(CLIArgs.PROFILE_WORKER_NUM);
+                try {
+                    workerNum = Integer.parseInt(num);
+                } catch (NumberFormatException e) {
+                    die("Invalid worker num: " + num);
+                }
+            }
+
+            if (cmd.hasOption(CLIArgs.PROFILE_WORKER_HEAP_L)) {
+                String heap = cmd.getOptionValue(CLIArgs.PROFILE_WORKER_HEAP_L);
+                try {
+                    workerHeap = Long.parseLong(heap);
+                } catch (NumberFormatException e) {
+                    die("Invalid worker heap: " + heap);
+                }
+            }
+
+            if (cmd.hasOption(CLIArgs.PROFILER_BACKEND_L)) {
+                String backend = cmd.getOptionValue(CLIArgs.PROFILER_BACKEND_L);
+                try {
+                    profilerBackend = ProfilerBackend.valueOf(backend.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    die("Unknown profiler: " + backend);
+                }
+            }
+
+            sootProfileOnly = cmd.hasOption(CLIArgs.SOOT_PROFILE_ONLY_L);
+
+            if (cmd.hasOption(CLIArgs.MATCH_THREAD_NUM_L)) {
+                String num = cmd.getOptionValue(CLIArgs.MATCH_THREAD_NUM_L);
+                try {
+                    matchThreadNum = Integer.parseInt(num);
+                } catch (NumberFormatException e) {
+                    die("Invalid thread num: " + num);
+                }
+            }
+
+            if (cmd.hasOption(CLIArgs.PROFILE_WORKER_L)) {
+                analysisOption = AnalysisOption.PROFILE;
+                profileAPK = cmd.getOptionValue(CLIArgs.PROFILE_WORKER_L);
+            } else if (cmd.hasOption(CLIArgs.ANALYSE_APK_DIR)) {
                 String dir = cmd.getOptionValue(CLIArgs.ANALYSE_APK_DIR);
                 if (!Utils.validateDirectory(dir))
                     die("dir path does not exist ot it is not a directory: " + dir);
@@ -147,6 +301,53 @@ public class CLIParser {
         return targetDir;
     }
 
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    public int getWorkerNum() {
+        return workerNum;
+    }
+
+    public long getWorkerHeap() {
+        return workerHeap;
+    }
+
+    public ProfilerBackend getProfilerBackend() {
+        return profilerBackend;
+    }
+
+    public boolean isSootProfileOnly() {
+        return sootProfileOnly;
+    }
+
+    public int getMatchThreadNum() {
+        return matchThreadNum;
+    }
+
+    public String getProfileAPK() {
+        return profileAPK;
+    }
+
+    // options a profiling child JVM needs to produce the same profile as this process
+    public List<String> getWorkerArgs() {
+        List<String> args = new ArrayList<>(Arrays.asList("-" + CLIArgs.ANDROID_SDK_PATH, androidJAR,
+                "-" + CLIArgs.WORD_LIST_PATH, wordlistPath,
+                "--" + CLIArgs.PROFILER_BACKEND_L, profilerBackend.name().toLowerCase()));
+        if (sootProfileOnly) {
+            args.add("--" + CLIArgs.SOOT_PROFILE_ONLY_L);
+        }
+        if (cacheDir != null) {
+            args.addAll(Arrays.asList("-" + CLIArgs.PROFILE_CACHE_DIR, cacheDir,
+                    "--" + CLIArgs.PROFILE_CACHE_SIZE_L, String.valueOf(cacheSize)));
+        }
+        return args;
+    }
+
     public AnalysisOption getAnalysisOption() {
         return analysisOption;
     }
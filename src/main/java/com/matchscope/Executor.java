@@ -2,6 +2,13 @@ package com.matchscope;
 
 import com.matchscope.analysis.MatchAnalysis;
 import com.matchscope.profile.AppProfile;
+import com.matchscope.profile.ClassProfile;
+import com.matchscope.profile.DexProfiler;
+import com.matchscope.profile.InnerClassProfile;
+import com.matchscope.profile.MethodProfile;
+import com.matchscope.profile.ProfileCache;
+import com.matchscope.profile.ProfileSerializer;
+import com.matchscope.profile.ProfilerBackend;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlPullParserException;
@@ -11,7 +18,13 @@ import soot.options.Options;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 public class Executor {
     private String source;
@@ -23,6 +36,11 @@ public class Executor {
     private String targetName;
     private AppProfile sourceProfile;
     private AppProfile targetProfile;
+    private ProfileCache profileCache;
+    private ProfileWorkerPool profileWorkerPool;
+    private ProfilerBackend profilerBackend = ProfilerBackend.SOOT;
+    private boolean sootProfileOnly = false;
+    private int profileThreadNum = 1;
     private static final Logger logger = LoggerFactory.getLogger(Executor.class);
 
     public Executor(String source, String target, String androidJar) {
@@ -31,8 +49,6 @@ public class Executor {
         this.sourceName = source.split("/")[source.split("/").length - 1];
         this.targetName = target.split("/")[target.split("/").length - 1];
         this.androidJar = androidJar;
-        this.sourceProfile = getAPKProfile(source, androidJar);
-        this.targetProfile = getAPKProfile(target, androidJar);
     }
 
     public Executor(String dir, String androidJar) {
@@ -40,9 +56,60 @@ public class Executor {
         this.androidJar = androidJar;
     }
 
+    public Executor(String androidJar) {
+        this.androidJar = androidJar;
+    }
+
+    public void setProfileCache(ProfileCache profileCache) {
+        this.profileCache = profileCache;
+    }
+
+    public void setProfilerBackend(ProfilerBackend profilerBackend) {
+        this.profilerBackend = profilerBackend;
+    }
+
+    public void setSootProfileOnly(boolean sootProfileOnly) {
+        this.sootProfileOnly = sootProfileOnly;
+    }
+
+    // threads profiling the classes of one apk with soot, not exposed on the command line until the speedup is measured
+    public void setProfileThreadNum(int profileThreadNum) {
+        this.profileThreadNum = profileThreadNum;
+    }
+
+    public void setProfileWorkerPool(ProfileWorkerPool profileWorkerPool) {
+        this.profileWorkerPool = profileWorkerPool;
+    }
+
     public void run() {
+        if (profileWorkerPool != null && sourceProfile == null && targetProfile == null) {
+            Future<AppProfile> sourceFuture = profileWorkerPool.submit(source);
+            Future<AppProfile> targetFuture = profileWorkerPool.submit(target);
+            sourceProfile = waitForProfile(sourceFuture);
+            targetProfile = waitForProfile(targetFuture);
+        }
+        if (sourceProfile == null) {
+            sourceProfile = getAPKProfile(source, androidJar);
+        }
+        if (targetProfile == null) {
+            targetProfile = getAPKProfile(target, androidJar);
+        }
         logger.info("Matching: " + sourceName + " " + targetName);
+        long fuzzyHashNum = MethodProfile.getMaterializedFuzzyHashNum();
         MatchAnalysis matchAnalysis = new MatchAnalysis(sourceProfile, targetProfile);
+        logger.info("Method fuzzy hashes calculated: " + (MethodProfile.getMaterializedFuzzyHashNum() - fuzzyHashNum)
+                + " of " + 3 * (getMethodNum(sourceProfile) + getMethodNum(targetProfile)));
+    }
+
+    private static long getMethodNum(AppProfile appProfile) {
+        long ret = 0;
+        for (ClassProfile cp: appProfile.getAllClasses().values()) {
+            ret += cp.getMethodNum();
+            for (InnerClassProfile icp: cp.getInnerClasses().values()) {
+                ret += icp.getMethodNum();
+            }
+        }
+        return ret;
     }
 
     public void runPairAnalysis() {
@@ -58,29 +125,96 @@ public class Executor {
         //ToDo: may need a more strict comparator
         Collections.sort(apks);
 
-        this.targetName = apks.get(0);
-        this.target = dir + "/" + apks.get(0);
-        this.targetProfile = getAPKProfile(target, androidJar);
-        apks.remove(0);
-
-        for(String apk : apks) {
-            this.sourceName = this.targetName;
-            this.source = this.target;
-            this.sourceProfile = this.targetProfile;
-            this.target = dir + "/" + apk;
-            this.targetName = apk;
-            this.targetProfile = getAPKProfile(target, androidJar);
-            run();
+        if (profileWorkerPool != null) {
+            runPipeline(apks, profileWorkerPool::submit, profileWorkerPool.getWorkerNum());
+        } else {
+            // soot can only load one apk at a time, but loading the next apk can overlap with matching the current pair
+            ExecutorService profiler = Executors.newSingleThreadExecutor();
+            try {
+                runPipeline(apks, apkPath -> profiler.submit(() -> getAPKProfile(apkPath, androidJar)), 1);
+            } finally {
+                profiler.shutdownNow();
+            }
+        }
+    }
+
+    private void runPipeline(List<String> apks, Function<String, Future<AppProfile>> profiler, int window) {
+        // at most `window` profiles are pending besides the pair being matched, this bounds the live profiles
+        List<Future<AppProfile>> profiles = new ArrayList<>();
+        for (int i = 0; i < Math.min(window, apks.size()); i++) {
+            profiles.add(profiler.apply(dir + "/" + apks.get(i)));
+        }
+
+        for (int i = 0; i < apks.size(); i++) {
+            AppProfile profile = waitForProfile(profiles.get(i));
+            profiles.set(i, null);
+            if (i + window < apks.size()) {
+                profiles.add(profiler.apply(dir + "/" + apks.get(i + window)));
+            }
+
+            nextTarget(apks.get(i), profile);
+            if (i > 0) {
+                run();
+            }
+        }
+    }
+
+    private void nextTarget(String apk, AppProfile profile) {
+        this.sourceName = this.targetName;
+        this.source = this.target;
+        this.sourceProfile = this.targetProfile;
+        this.target = dir + "/" + apk;
+        this.targetName = apk;
+        this.targetProfile = profile;
+    }
+
+    private AppProfile waitForProfile(Future<AppProfile> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void runProfileWorker(String apkPath, OutputStream out) {
+        AppProfile appProfile = getAPKProfile(apkPath, androidJar);
+        try {
+            ProfileSerializer.write(appProfile, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
     public AppProfile getAPKProfile(String apkPath, String androidJarPath) {
-        setupSoot(apkPath, androidJarPath);
+        if (profileCache != null) {
+            AppProfile cached = profileCache.load(apkPath);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        AppProfile appProfile;
+        long start = System.currentTimeMillis();
         try (ProcessManifest manifest = new ProcessManifest(apkPath)) {
-            return new AppProfile(apkPath, manifest);
+            if (profilerBackend == ProfilerBackend.DEX) {
+                appProfile = DexProfiler.profile(apkPath, manifest, Runtime.getRuntime().availableProcessors());
+            } else {
+                setupSoot(apkPath, androidJarPath);
+                logger.info("Soot load time: " + (System.currentTimeMillis() - start) + " ms");
+                appProfile = new AppProfile(apkPath, manifest, !sootProfileOnly, profileThreadNum);
+                // the profile is detached from soot, release the scene before the next apk is loaded
+                soot.G.reset();
+            }
         } catch (XmlPullParserException | IOException e) {
             throw new RuntimeException(e);
         }
+        logger.info("Profiling time: " + (System.currentTimeMillis() - start) + " ms" +
+                " used heap: " + (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / (1024 * 1024) + " MB");
+
+        if (profileCache != null) {
+            profileCache.store(apkPath, appProfile);
+        }
+        return appProfile;
     }
 
     private void setupSoot(String apkPath, String androidJarPath) {
@@ -89,13 +223,15 @@ public class Executor {
         sootOpt.set_keep_line_number(false);
         sootOpt.set_prepend_classpath(true);
         sootOpt.set_allow_phantom_refs(true);
-        sootOpt.set_whole_program(true);
+        // the profiler only needs the bodies of application methods, which soot creates on demand,
+        // so the whole program phases and the dex output are skipped in profile-only mode
+        sootOpt.set_whole_program(!sootProfileOnly);
         sootOpt.set_src_prec(Options.src_prec_apk);
         sootOpt.set_process_dir(Collections.singletonList(apkPath));
         sootOpt.set_android_jars(androidJarPath);
         sootOpt.set_process_multiple_dex(true);
 //        sootOpt.set_num_threads(16);
-        sootOpt.set_output_format(Options.output_format_dex);
+        sootOpt.set_output_format(sootProfileOnly ? Options.output_format_none : Options.output_format_dex);
 
         Scene.v().loadBasicClasses();
         Scene.v().loadNecessaryClasses();
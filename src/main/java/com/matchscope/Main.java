@@ -1,22 +1,73 @@
 package com.matchscope;
 
+import com.matchscope.analysis.Configs;
+import com.matchscope.profile.ProfileCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.PrintStream;
+
 public class Main {
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
     public static void main(String[] args) {
 
         CLIParser cliParser = new CLIParser(args);
+        PrintStream out = System.out;
+        if (cliParser.getAnalysisOption() == AnalysisOption.PROFILE) {
+            // stdout carries the serialized profile, so logs and soot output must go elsewhere
+            System.setOut(System.err);
+        }
         logger.info("SDK Path:  "+ cliParser.getAndroidJAR());
+        logger.info("Profiler: " + cliParser.getProfilerBackend());
+        if (cliParser.isSootProfileOnly()) {
+            logger.warn("--soot-profile-only is experimental, its match results are not verified against the default configuration");
+        }
+
+        ProfileCache profileCache = null;
+        if (cliParser.getCacheDir() != null) {
+            logger.info("Profile Cache: " + cliParser.getCacheDir());
+            profileCache = new ProfileCache(cliParser.getCacheDir(), cliParser.getCacheSize() * 1024 * 1024,
+                    cliParser.getProfilerBackend(), cliParser.isSootProfileOnly());
+        }
+
+        if (cliParser.getAnalysisOption() == AnalysisOption.PROFILE) {
+            Executor executor = new Executor(cliParser.getAndroidJAR());
+            executor.setProfilerBackend(cliParser.getProfilerBackend());
+            executor.setSootProfileOnly(cliParser.isSootProfileOnly());
+            executor.setProfileCache(profileCache);
+            executor.runProfileWorker(cliParser.getProfileAPK(), out);
+            out.flush();
+            return;
+        }
+
+        Configs.matchThreadNum = cliParser.getMatchThreadNum();
+
+        if (cliParser.getWorkerNum() > 0) {
+            logger.info("Profile Workers: " + cliParser.getWorkerNum());
+        }
+        // the pool is closed on failures as well, its threads and child JVMs would keep the JVM alive
+        try (ProfileWorkerPool profileWorkerPool = cliParser.getWorkerNum() > 0 ?
+                new ProfileWorkerPool(cliParser.getWorkerNum(), cliParser.getWorkerHeap(), cliParser.getWorkerArgs()) : null) {
+            run(cliParser, profileCache, profileWorkerPool);
+        }
+    }
 
+    private static void run(CLIParser cliParser, ProfileCache profileCache, ProfileWorkerPool profileWorkerPool) {
         if(cliParser.getAnalysisOption() == AnalysisOption.PAIR) {
             logger.info("Input: " + cliParser.getSourceAPK() + " " + cliParser.getTargetAPK());
             Executor executor = new Executor(cliParser.getSourceAPK(), cliParser.getTargetAPK(), cliParser.getAndroidJAR());
+            executor.setProfilerBackend(cliParser.getProfilerBackend());
+            executor.setSootProfileOnly(cliParser.isSootProfileOnly());
+            executor.setProfileCache(profileCache);
+            executor.setProfileWorkerPool(profileWorkerPool);
             executor.run();
         } else if (cliParser.getAnalysisOption() == AnalysisOption.DIRECTORY) {
             Executor executor = new Executor(cliParser.getTargetDir(), cliParser.getAndroidJAR());
+            executor.setProfilerBackend(cliParser.getProfilerBackend());
+            executor.setSootProfileOnly(cliParser.isSootProfileOnly());
+            executor.setProfileCache(profileCache);
+            executor.setProfileWorkerPool(profileWorkerPool);
             executor.runPairAnalysis();
         }
     }
@@ -0,0 +1,93 @@
+package com.matchscope;
+
+import com.matchscope.profile.AppProfile;
+import com.matchscope.profile.ProfileSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Profiles apks in child JVMs, since Soot keeps its state in global singletons and
+// can only analyse one apk per JVM at a time. Each child streams the serialized profile
+// back on its stdout, logs of the child go to stderr.
+public class ProfileWorkerPool implements AutoCloseable {
+    private final int workerNum;
+    private final long workerHeap;
+    private final List<String> workerArgs;
+    private final ExecutorService executorService;
+    // children still running, they are destroyed when the pool is closed before they finish
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+    private static final Logger logger = LoggerFactory.getLogger(ProfileWorkerPool.class);
+
+    public ProfileWorkerPool(int workerNum, long workerHeap, List<String> workerArgs) {
+        this.workerNum = workerNum;
+        this.workerHeap = workerHeap;
+        this.workerArgs = workerArgs;
+        this.executorService = Executors.newFixedThreadPool(workerNum);
+    }
+
+    public Future<AppProfile> submit(String apkPath) {
+        return executorService.submit(() -> profile(apkPath));
+    }
+
+    private AppProfile profile(String apkPath) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx" + workerHeap + "m");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(workerArgs);
+        command.add("--" + CLIParser.CLIArgs.PROFILE_WORKER_L);
+        command.add(apkPath);
+
+        logger.info("Start profile worker: " + apkPath);
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        processes.add(process);
+
+        try {
+            AppProfile appProfile;
+            try (InputStream is = process.getInputStream()) {
+                appProfile = ProfileSerializer.read(is);
+            } catch (IOException e) {
+                process.destroyForcibly();
+                throw new IOException("Profile worker failed: " + apkPath, e);
+            }
+
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Profile worker exited with " + exitCode + ": " + apkPath);
+            }
+            logger.info("Profile worker done: " + apkPath);
+            return appProfile;
+        } finally {
+            processes.remove(process);
+        }
+    }
+
+    public int getWorkerNum() {
+        return workerNum;
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+        if (!processes.isEmpty()) {
+            logger.info("Destroy running profile workers: " + processes.size());
+        }
+        for (Process process: processes) {
+            process.destroyForcibly();
+        }
+    }
+}
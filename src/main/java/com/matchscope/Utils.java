@@ -1,5 +1,7 @@
 package com.matchscope;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import info.debatty.java.spamsum.SpamSum;
 import soot.SootClass;
@@ -228,6 +230,33 @@ public class Utils {
         return classType.substring(1, classType.length()-1);
    }
 
+   // converts a dex type descriptor such as [Ljava/lang/String; to the soot type name java.lang.String[]
+   public static String dexType2JavaType(String dexType) {
+        int dimensions = 0;
+        while (dexType.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String baseType = dexType.substring(dimensions);
+        String javaType;
+        switch (baseType.charAt(0)) {
+            case 'V': javaType = "void"; break;
+            case 'Z': javaType = "boolean"; break;
+            case 'B': javaType = "byte"; break;
+            case 'S': javaType = "short"; break;
+            case 'C': javaType = "char"; break;
+            case 'I': javaType = "int"; break;
+            case 'J': javaType = "long"; break;
+            case 'F': javaType = "float"; break;
+            case 'D': javaType = "double"; break;
+            default: javaType = dexClassType2Name(baseType);
+        }
+        StringBuilder sb = new StringBuilder(javaType);
+        for (int i = 0; i < dimensions; i++) {
+            sb.append("[]");
+        }
+        return sb.toString();
+   }
+
    public static String calculateFuzzyHash(String s) {
        SpamSum spamSum = new SpamSum();
        return spamSum.HashString(s);
@@ -242,16 +271,36 @@ public class Utils {
         return calculateFuzzyHash(" ", l);
    }
 
-   public static String calculateHash(String s) {
-        return Hashing.md5().hashString(s, StandardCharsets.UTF_8).toString();
+   // 64 bits of murmur3, the features are hashed for equality checks only and do not need a cryptographic hash
+   private static final HashFunction FEATURE_HASH = Hashing.murmur3_128();
+
+   public static long calculateHash(String s) {
+        return FEATURE_HASH.hashString(s, StandardCharsets.UTF_8).asLong();
    }
 
-   public static String calculateHash(List<String> l) {
+   public static long calculateHash(Iterable<String> l) {
         return calculateHash(" ", l);
    }
 
-   public static String calculateHash(String delimiter, List<String> l) {
-        return calculateHash(String.join(delimiter, l));
+   // streams the tokens into the hasher, same as hashing String.join(delimiter, l) without building the string
+   public static long calculateHash(String delimiter, Iterable<String> l) {
+        Hasher hasher = FEATURE_HASH.newHasher();
+        boolean first = true;
+        for (String s: l) {
+            if (!first) {
+                hasher.putString(delimiter, StandardCharsets.UTF_8);
+            }
+            hasher.putString(s, StandardCharsets.UTF_8);
+            first = false;
+        }
+        return hasher.hash().asLong();
+   }
+
+   // order dependent combination of two hashes
+   public static long mixHash(long h, long v) {
+        h ^= v * 0x9e3779b97f4a7c15L;
+        h = Long.rotateLeft(h, 31) * 0xbf58476d1ce4e5b9L;
+        return h ^ (h >>> 29);
    }
 
 }
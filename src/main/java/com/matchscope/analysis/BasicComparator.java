@@ -1,24 +1,106 @@
 package com.matchscope.analysis;
 
-import info.debatty.java.stringsimilarity.Levenshtein;
-
 public class BasicComparator {
+    private static final int QGRAM_BUCKETS = 4096;
+    // two dp rows and the q-gram histogram, reused by every comparison of a thread
+    private static final ThreadLocal<int[][]> rows = ThreadLocal.withInitial(() -> new int[][] {new int[128], new int[128]});
+    private static final ThreadLocal<int[]> qgramCounts = ThreadLocal.withInitial(() -> new int[QGRAM_BUCKETS]);
 
-    public static boolean stringSimilar(String m1, String m2, double threshold) {
-        double similarity = calculateMethodSimilarityScore(m1, m2);
-        return similarity >= threshold;
+    // the threshold fixes the max distance, so the edit distance can stop as soon as it is exceeded
+    public static int getMaxDistance(int maxLen, double threshold) {
+        return (int) Math.floor((1 - threshold) * maxLen + 1e-9);
     }
 
-    public static boolean stringSimilar(String m1, String m2) {
-        return stringSimilar(m1, m2, 0.85);
+    // Levenshtein distance of s and t if it is at most bound, bound + 1 otherwise. FuzzyHashComparator only uses it
+    // for digests longer than the 64 characters of its bit-parallel kernel.
+    // Only the diagonal band of width 2 * bound + 1 is computed (Ukkonen), after the length difference
+    // and the bigram counts have been checked as lower bounds of the distance.
+    public static int boundedLevenshteinDistance(CharSequence s, CharSequence t, int bound) {
+        int n = s.length();
+        int m = t.length();
+        if (Math.abs(n - m) > bound) {
+            return bound + 1;
+        }
+        if (n == 0 || m == 0) {
+            return Math.max(n, m);
+        }
+        if (bound == 0) {
+            return s.toString().contentEquals(t) ? 0 : 1;
+        }
+        if (getQgramLowerBound(s, t) > bound) {
+            return bound + 1;
+        }
+
+        int inf = bound + 1;
+        int[][] r = rows.get();
+        if (r[0].length < m + 1) {
+            r[0] = new int[m + 1];
+            r[1] = new int[m + 1];
+        }
+        int[] prev = r[0];
+        int[] curr = r[1];
+        for (int j = 0; j <= m; j++) {
+            prev[j] = Math.min(j, inf);
+        }
+
+        for (int i = 1; i <= n; i++) {
+            int lo = Math.max(1, i - bound);
+            int hi = Math.min(m, i + bound);
+            curr[lo - 1] = lo == 1 ? Math.min(i, inf) : inf;
+            int rowMin = curr[lo - 1];
+            char c = s.charAt(i - 1);
+            for (int j = lo; j <= hi; j++) {
+                int d = prev[j - 1] + (c == t.charAt(j - 1) ? 0 : 1);
+                d = Math.min(d, prev[j] + 1);
+                d = Math.min(d, curr[j - 1] + 1);
+                d = Math.min(d, inf);
+                curr[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > bound) {
+                return inf;
+            }
+            // the next row reads one cell to the right of this band
+            if (hi < m) {
+                curr[hi + 1] = inf;
+            }
+            int[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return prev[m];
     }
 
-    public static double calculateMethodSimilarityScore(String m1, String m2) {
-        return 1 - calculateLevenshteinDistance(m1, m2) / Math.max(m1.length(), m2.length());
+    // An edit operation destroys at most two bigrams of s, so s and t share at least
+    // max(n, m) - 1 - 2 * distance bigrams. Bigrams are counted in hashed buckets, which can only
+    // overestimate the shared count and keeps the bound valid.
+    private static int getQgramLowerBound(CharSequence s, CharSequence t) {
+        int n = s.length();
+        int m = t.length();
+        if (n < 2 || m < 2) {
+            return 0;
+        }
+        int[] counts = qgramCounts.get();
+        for (int i = 1; i < n; i++) {
+            counts[getQgramBucket(s, i)]++;
+        }
+        int shared = 0;
+        for (int i = 1; i < m; i++) {
+            int bucket = getQgramBucket(t, i);
+            if (counts[bucket] > 0) {
+                counts[bucket]--;
+                shared++;
+            }
+        }
+        // reset the buckets touched by s
+        for (int i = 1; i < n; i++) {
+            counts[getQgramBucket(s, i)] = 0;
+        }
+        int missing = Math.max(n, m) - 1 - shared;
+        return (missing + 1) / 2;
     }
 
-    private static double calculateLevenshteinDistance(String m1, String m2) {
-        Levenshtein l = new Levenshtein();
-        return l.distance(m1, m2);
+    private static int getQgramBucket(CharSequence s, int i) {
+        return (s.charAt(i - 1) * 31 + s.charAt(i)) & (QGRAM_BUCKETS - 1);
     }
 }
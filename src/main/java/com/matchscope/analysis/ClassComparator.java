@@ -88,16 +88,16 @@ public class ClassComparator extends BasicComparator{
         return (float) min/max >= 0.4;
     }
 
-    public boolean compareByLevel0HashSimilarity(double threshold) {
-        return stringSimilar(c1.getLevel0Hash(), c2.getLevel0Hash(), threshold);
-    }
-
     public boolean compareByLevel0Hash() {
-        return Objects.equals(c1.getLevel0Hash(), c2.getLevel0Hash());
+        return c1.getLevel0Hash() == c2.getLevel0Hash();
     }
 
     public static boolean compareByLevel0FuzzyHash(BasicClassProfile scp, BasicClassProfile tcp, double threshold) {
-        return stringSimilar(scp.getLevel0FuzzyHash(), tcp.getLevel0FuzzyHash(), threshold);
+        return compareByLevel0FuzzyHash(scp, tcp, threshold, null);
+    }
+
+    public static boolean compareByLevel0FuzzyHash(BasicClassProfile scp, BasicClassProfile tcp, double threshold, SimilarityCache cache) {
+        return FuzzyHashComparator.similar(scp.getParsedLevel0FuzzyHash(), tcp.getParsedLevel0FuzzyHash(), threshold, cache);
     }
 
 
@@ -1,107 +1,337 @@
 package com.matchscope.analysis;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.*;
 
-public class ClassMatchResult extends MatchResult {
+// Class matches of one analysis, kept by the ids of the source and target ClassRegistry: the matched target of
+// every source in an int array, the potential targets of a source in a sorted int array and the added and deleted
+// classes in BitSets. Names are looked up at the calls and only materialized for the results. Ids are in
+// LengthAlphabeticalComparator order, so the materialized results are sorted as before.
+public class ClassMatchResult {
     private final int sourceClassNum;
     private final int targetClassNum;
-    private final TreeMap<String, TreeSet<String>> potentialMatches;
-
+    private final ClassRegistry sourceRegistry;
+    private final ClassRegistry targetRegistry;
+    // target id of every source id, -1 if the source is not matched
+    private final int[] matchedTarget;
+    private final BitSet matchedSources;
+    // matches may be updated to a target that is already matched, so the sources of a target are counted
+    private final int[] targetMatchCount;
+    private int matchedTargetNum = 0;
+    // sorted target ids of every source id, null if the source has no potential match
+    private final int[][] potentialTargets;
+    private final BitSet potentialSources;
+    // the sources having a target as potential match, updated with potentialTargets
+    private final int[] targetPotentialCount;
+    private int potentialTargetNum = 0;
+    private final BitSet added;
+    private final BitSet deleted;
+    private final Logger logger = LoggerFactory.getLogger(ClassMatchResult.class);
 
-    public ClassMatchResult(int sourceClassNum, int targetClassNum) {
-        super();
+    public ClassMatchResult(int sourceClassNum, int targetClassNum, ClassRegistry sourceRegistry, ClassRegistry targetRegistry) {
         this.sourceClassNum = sourceClassNum;
         this.targetClassNum = targetClassNum;
-        this.potentialMatches = new TreeMap<>(new ClassMatcher.LengthAlphabeticalComparator());
+        this.sourceRegistry = sourceRegistry;
+        this.targetRegistry = targetRegistry;
+        this.matchedTarget = new int[sourceRegistry.size()];
+        Arrays.fill(this.matchedTarget, -1);
+        this.matchedSources = new BitSet(sourceRegistry.size());
+        this.targetMatchCount = new int[targetRegistry.size()];
+        this.potentialTargets = new int[sourceRegistry.size()][];
+        this.potentialSources = new BitSet(sourceRegistry.size());
+        this.targetPotentialCount = new int[targetRegistry.size()];
+        this.added = new BitSet(targetRegistry.size());
+        this.deleted = new BitSet(sourceRegistry.size());
+    }
+
+    // adds the match unless the source or the target is matched to another class already
+    public boolean addIdentical(String source, String target) {
+        int s = sourceRegistry.requireId(source);
+        int t = targetRegistry.requireId(target);
+        if (matchedSources.get(s)) {
+            if (matchedTarget[s] == t) {
+                return true;
+            }
+            logger.debug("source exist: " + source + " " + target);
+            return false;
+        }
+        if (targetMatchCount[t] > 0) {
+            logger.debug("target exists: " + source + " " + target);
+            return false;
+        }
+        setMatch(s, t);
+        return true;
+    }
+
+    public void updateIdentical(String source, String target) {
+        // ToDo: remove the record if target exists already
+        setMatch(sourceRegistry.requireId(source), targetRegistry.requireId(target));
+    }
+
+    private void setMatch(int s, int t) {
+        if (matchedSources.get(s)) {
+            if (--targetMatchCount[matchedTarget[s]] == 0) {
+                matchedTargetNum--;
+            }
+        }
+        matchedTarget[s] = t;
+        matchedSources.set(s);
+        if (targetMatchCount[t]++ == 0) {
+            matchedTargetNum++;
+        }
+    }
+
+    public boolean isSourceMatched(String source) {
+        int s = sourceRegistry.getId(source);
+        return s >= 0 && matchedSources.get(s);
     }
 
-    @Override
-    public TreeMap<String, String> getMatches() {
-        return this.identical;
+    public boolean isTargetMatched(String target) {
+        int t = targetRegistry.getId(target);
+        return t >= 0 && targetMatchCount[t] > 0;
+    }
+
+    // null if the source is not matched
+    public String getMatchedTarget(String source) {
+        int s = sourceRegistry.getId(source);
+        if (s < 0 || !matchedSources.get(s)) {
+            return null;
+        }
+        return targetRegistry.getName(matchedTarget[s]);
+    }
+
+    // the matches sorted by source
+    public Map<String, String> getMatches() {
+        Map<String, String> ret = new LinkedHashMap<>();
+        for (int s = matchedSources.nextSetBit(0); s >= 0; s = matchedSources.nextSetBit(s + 1)) {
+            ret.put(sourceRegistry.getName(s), targetRegistry.getName(matchedTarget[s]));
+        }
+        return ret;
     }
 
-    @Override
     public int getMatchSize() {
-        return this.identical.size();
+        return matchedSources.cardinality();
     }
 
     public int getTargetSize() {
-        return new HashSet<>(this.identical.values()).size();
+        return matchedTargetNum;
     }
 
-    public TreeMap<String, TreeSet<String>> getPotentialMatches() {
-        return potentialMatches;
+    public void addPotentialMatch(String source, String target) {
+        int s = sourceRegistry.requireId(source);
+        int t = targetRegistry.requireId(target);
+        int[] targets = potentialTargets[s];
+        if (targets == null) {
+            potentialTargets[s] = new int[]{t};
+            potentialSources.set(s);
+            addTargetPotential(t);
+            return;
+        }
+        int index = Arrays.binarySearch(targets, t);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        int[] extended = new int[targets.length + 1];
+        System.arraycopy(targets, 0, extended, 0, index);
+        extended[index] = t;
+        System.arraycopy(targets, index, extended, index + 1, targets.length - index);
+        potentialTargets[s] = extended;
+        addTargetPotential(t);
     }
 
-    public int getSourcePotentialMatchSize() {
-        return potentialMatches.size();
+    private void addTargetPotential(int t) {
+        if (targetPotentialCount[t]++ == 0) {
+            potentialTargetNum++;
+        }
     }
 
-    public Set<String> getTargetPotentialMatch() {
-        Set<String> matches = new HashSet<>();
-        for (Set<String> s: this.potentialMatches.values()) {
-            matches.addAll(s);
+    private void removeTargetPotentials(int s) {
+        if (potentialTargets[s] == null) {
+            return;
+        }
+        for (int t: potentialTargets[s]) {
+            if (--targetPotentialCount[t] == 0) {
+                potentialTargetNum--;
+            }
         }
-        return matches;
     }
 
-    public int getTargetPotentialMatchSize() {
-        return getTargetPotentialMatch().size();
+    public boolean hasPotentialMatch(String source) {
+        int s = sourceRegistry.getId(source);
+        return s >= 0 && potentialSources.get(s);
     }
 
-    public int getInnerClassMatchSize() {
-        int ret = 0;
-        for (String s: identical.keySet()) {
-            if (s.contains("$")) {
-                ret++;
+    public void removePotentialMatch(String source) {
+        removePotentialMatch(sourceRegistry.requireId(source));
+    }
+
+    // ids of the sources with potential matches, ascending
+    public int[] getPotentialSourceIds() {
+        return potentialSources.stream().toArray();
+    }
+
+    // sorted ids of the potential targets of the source, empty if there is none
+    public int[] getPotentialTargetIds(int source) {
+        int[] targets = potentialTargets[source];
+        return targets == null ? new int[0] : targets.clone();
+    }
+
+    // reduces the potential matches of the source to the one target
+    public void setPotentialMatch(int source, int target) {
+        removeTargetPotentials(source);
+        potentialTargets[source] = new int[]{target};
+        potentialSources.set(source);
+        addTargetPotential(target);
+    }
+
+    public void removePotentialMatch(int source) {
+        removeTargetPotentials(source);
+        potentialTargets[source] = null;
+        potentialSources.clear(source);
+    }
+
+    // the potential matches sorted by source, the targets of a source sorted as well
+    public Map<String, List<String>> getPotentialMatches() {
+        Map<String, List<String>> ret = new LinkedHashMap<>();
+        for (int s = potentialSources.nextSetBit(0); s >= 0; s = potentialSources.nextSetBit(s + 1)) {
+            List<String> targets = new ArrayList<>(potentialTargets[s].length);
+            for (int t: potentialTargets[s]) {
+                targets.add(targetRegistry.getName(t));
             }
+            ret.put(sourceRegistry.getName(s), targets);
         }
         return ret;
     }
 
-    public int getPotentialInnerClassMatchSize() {
-        int ret = 0;
-        for (String s: potentialMatches.keySet()) {
-            if (s.contains("$")) {
-                ret++;
+    public int getSourcePotentialMatchSize() {
+        return potentialSources.cardinality();
+    }
+
+    public boolean isTargetPotentialMatch(String target) {
+        int t = targetRegistry.getId(target);
+        return t >= 0 && targetPotentialCount[t] > 0;
+    }
+
+    public int getTargetPotentialMatchSize() {
+        return potentialTargetNum;
+    }
+
+    // every class that is neither matched nor potentially matched in the end is deleted or added,
+    // including the ones set as deleted or added by an earlier stage and matched later
+    public void resolveUnmatched() {
+        deleted.set(0, sourceRegistry.size());
+        deleted.andNot(matchedSources);
+        deleted.andNot(potentialSources);
+        added.clear();
+        for (int t = 0; t < targetRegistry.size(); t++) {
+            if (targetMatchCount[t] == 0 && targetPotentialCount[t] == 0) {
+                added.set(t);
             }
         }
-        return ret;
+    }
+
+    public int getInnerClassMatchSize() {
+        return countInnerClasses(matchedSources, true);
+    }
+
+    public int getPotentialInnerClassMatchSize() {
+        return countInnerClasses(potentialSources, true);
     }
 
     public int getClassMatchSize() {
-        int ret = 0;
-        for (String s: identical.keySet()) {
-            if (!s.contains("$")) {
-                ret++;
-            }
-        }
-        return ret;
+        return countInnerClasses(matchedSources, false);
     }
 
     public int getPotentialClassMatchSize() {
+        return countInnerClasses(potentialSources, false);
+    }
+
+    private int countInnerClasses(BitSet sources, boolean inner) {
         int ret = 0;
-        for (String s: potentialMatches.keySet()) {
-            if (!s.contains("$")) {
+        for (int s = sources.nextSetBit(0); s >= 0; s = sources.nextSetBit(s + 1)) {
+            if (sourceRegistry.isInnerClass(s) == inner) {
                 ret++;
             }
         }
         return ret;
     }
 
-    public int getSourceClassNum() {
-        return sourceClassNum;
+    public void addDeleted(String s) {
+        deleted.set(sourceRegistry.requireId(s));
     }
 
-    public int getTargetClassNum() {
-        return targetClassNum;
+    public void addDeletedAll(Collection<String> c) {
+        for (String s: c) {
+            addDeleted(s);
+        }
+    }
+
+    public void addAdded(String s) {
+        added.set(targetRegistry.requireId(s));
+    }
+
+    public void addAddedAll(Collection<String> c) {
+        for (String s: c) {
+            addAdded(s);
+        }
     }
 
     public void removeDeleted(String s) {
-        this.deleted.remove(s);
+        int id = sourceRegistry.getId(s);
+        if (id >= 0) {
+            deleted.clear(id);
+        }
     }
 
     public void removeAdded(String s) {
-        this.added.remove(s);
+        int id = targetRegistry.getId(s);
+        if (id >= 0) {
+            added.clear(id);
+        }
+    }
+
+    // the added classes, sorted
+    public List<String> getAdded() {
+        return getNames(added, targetRegistry);
+    }
+
+    public int getAddedSize() {
+        return added.cardinality();
+    }
+
+    // the deleted classes, sorted
+    public List<String> getDeleted() {
+        return getNames(deleted, sourceRegistry);
+    }
+
+    public int getDeletedSize() {
+        return deleted.cardinality();
+    }
+
+    private static List<String> getNames(BitSet ids, ClassRegistry registry) {
+        List<String> ret = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            ret.add(registry.getName(id));
+        }
+        return ret;
+    }
+
+    public ClassRegistry getSourceRegistry() {
+        return sourceRegistry;
+    }
+
+    public ClassRegistry getTargetRegistry() {
+        return targetRegistry;
+    }
+
+    public int getSourceClassNum() {
+        return sourceClassNum;
+    }
+
+    public int getTargetClassNum() {
+        return targetClassNum;
     }
 }
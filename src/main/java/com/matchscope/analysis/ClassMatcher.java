@@ -4,20 +4,23 @@ import com.matchscope.Utils;
 import com.matchscope.obf.ObfuscationLevel;
 import com.matchscope.profile.BasicClassProfile;
 import com.matchscope.profile.ClassProfile;
+import com.matchscope.profile.FuzzyHash;
 import com.matchscope.profile.InnerClassProfile;
 import com.matchscope.profile.MethodProfile;
+import com.matchscope.profile.MinHash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class ClassMatcher {
     private final ClassMatchResult classMatchResult;
-    private final TreeMap<String, String> matches;
-    private final Map<String, TreeSet<String>> potentialMatches;
 
     private final Map<String, ClassProfile> sourceNotObfuscated;
     private final Map<String, ClassProfile> sourceObfuscated;
@@ -26,12 +29,16 @@ public class ClassMatcher {
     private final Map<String, ClassProfile> targetNotObfuscated;
     private final Map<String, ClassProfile> targetObfuscated;
     private final Map<String, ClassProfile> target;
+
+    private final PackageTrie sourcePackages;
+    private final PackageTrie targetPackages;
+    private final SimilarityCache similarityCache;
     private final Logger logger = LoggerFactory.getLogger(ClassMatcher.class);
 
-    public ClassMatcher(Map<String, ClassProfile> source, Map<String, ClassProfile> target, ClassMatchResult classMatchResult) {
+    public ClassMatcher(Map<String, ClassProfile> source, Map<String, ClassProfile> target, ClassMatchResult classMatchResult,
+                        SimilarityCache similarityCache, PackageTrie sourcePackages, PackageTrie targetPackages) {
         this.classMatchResult = classMatchResult;
-        this.potentialMatches = this.classMatchResult.getPotentialMatches();
-        this.matches = this.classMatchResult.getMatches();
+        this.similarityCache = similarityCache;
 
         this.source = source;
         this.target = target;
@@ -41,6 +48,9 @@ public class ClassMatcher {
 
         this.targetObfuscated = getObfuscatedClasses(target);
         this.targetNotObfuscated = getNotObfuscatedClasses(target);
+
+        this.sourcePackages = sourcePackages;
+        this.targetPackages = targetPackages;
     }
 
     public void doMatch() {
@@ -48,13 +58,14 @@ public class ClassMatcher {
         matchNotObfuscated();
         logger.info("Not Obfuscated Match size: " + getMatchSize());
 
-        Map<String, ClassProfile> sourceUnmatched = getUnmatchedClasses(source, matches.keySet());
-        Map<String, ClassProfile> targetUnmatched = getUnmatchedClasses(target, new HashSet<>(matches.values()));
+        Map<String, ClassProfile> sourceUnmatched = getUnmatchedClasses(source, classMatchResult::isSourceMatched);
+        Map<String, ClassProfile> targetUnmatched = getUnmatchedClasses(target, classMatchResult::isTargetMatched);
 
         logger.info("Source Unmatched Size: " + sourceUnmatched.size() + " Target Unmatched Size: " + targetUnmatched.size());
 
-        IndexAwareMatch indexAwareMatch = new IndexAwareMatch(sourceUnmatched, targetUnmatched, this.classMatchResult);
-        logger.info("Index-aware Match Size: " + this.matches.size());
+        IndexAwareMatch indexAwareMatch = new IndexAwareMatch(sourceUnmatched, targetUnmatched, this.classMatchResult, similarityCache,
+                sourcePackages, targetPackages);
+        logger.info("Index-aware Match Size: " + getMatchSize());
 
         logger.info("Inner Class Match:");
         doInnerClassMatch();
@@ -66,28 +77,13 @@ public class ClassMatcher {
         logger.info("Pairwise Match.");
         doPairwiseMatch();
         logger.info("Pairwise Match size: " + getMatchSize());
-        logger.info("Potential match size: " + potentialMatches.size());
-
-
-        // some deleted/added class in index-aware are matched later. ToDo: the update to "deleted" should be done when adding new match
-        this.classMatchResult.getDeleted().removeAll(this.classMatchResult.getMatches().keySet());
-        this.classMatchResult.getDeleted().removeAll(this.classMatchResult.getPotentialMatches().keySet());
-        this.classMatchResult.getAdded().removeAll(this.classMatchResult.getMatches().values());
-        this.classMatchResult.getAdded().removeAll(this.classMatchResult.getTargetPotentialMatch());
-
-
-        Set<String> sourceAll = getAllClass(source);
-        Set<String> targetAll = getAllClass(target);
-
-        sourceAll.removeAll(this.classMatchResult.getMatches().keySet());
-        sourceAll.removeAll(this.classMatchResult.getPotentialMatches().keySet());
+        logger.info("Potential match size: " + classMatchResult.getSourcePotentialMatchSize());
+        assignPotentialMatches();
+        logger.info("Assigned potential match size: " + classMatchResult.getSourcePotentialMatchSize());
 
-        this.classMatchResult.addDeletedAll(sourceAll);
 
-        targetAll.removeAll(this.classMatchResult.getMatches().values());
-        targetAll.removeAll(this.classMatchResult.getTargetPotentialMatch());
-
-        this.classMatchResult.addAddedAll(targetAll);
+        // some deleted/added class in index-aware are matched later, the unmatched classes are resolved at the end
+        this.classMatchResult.resolveUnmatched();
 
 //        this.classMatchResult.addDeletedAll(getUnmatchedSource());
 //        this.classMatchResult.addAddedAll(getUnmatchedTarget());
@@ -141,16 +137,16 @@ public class ClassMatcher {
     }
 
     private boolean isClassSimilar(ClassProfile scp, ClassProfile tcp, double threshold) {
-        String sourceL0FuzzyHash = scp.getLevel0FuzzyHash();
-        String targetL0FuzzyHash = tcp.getLevel0FuzzyHash();
-        double similarity = ClassComparator.calculateMethodSimilarityScore(sourceL0FuzzyHash, targetL0FuzzyHash);
+        FuzzyHash sourceL0FuzzyHash = scp.getParsedLevel0FuzzyHash();
+        FuzzyHash targetL0FuzzyHash = tcp.getParsedLevel0FuzzyHash();
+        double similarity = FuzzyHashComparator.score(sourceL0FuzzyHash, targetL0FuzzyHash, 0, similarityCache);
         logger.debug("Comparing: " + scp.getName() + " " + tcp.getName() + " similarity: " + similarity);
         return similarity >= threshold;
     }
 
 
     private void doClassDependencyMatch() {
-        Map<String, String> matchesCopy = new HashMap<>(matches);
+        Map<String, String> matchesCopy = classMatchResult.getMatches();
         for (Map.Entry<String, String> entry: matchesCopy.entrySet()) {
             String s = entry.getKey();
             String t = entry.getValue();
@@ -159,7 +155,7 @@ public class ClassMatcher {
     }
 
     private void doInnerClassMatch() {
-        Map<String, String> matchesCopy = new TreeMap<>(matches);
+        Map<String, String> matchesCopy = classMatchResult.getMatches();
         for (Map.Entry<String, String> entry: matchesCopy.entrySet()) {
             String s = entry.getKey();
             String t = entry.getValue();
@@ -203,16 +199,23 @@ public class ClassMatcher {
     private void doPairwiseMatch() {
         Map<String, String> matchedGroups = findMatchedGroups();
         for(String group: matchedGroups.keySet()) {
-            Set<String> sourceClassProfiles = getClassesByPrefix(sourceObfuscated, group).keySet();
-            sourceClassProfiles.removeAll(matches.keySet());
-            Set<String> targetClassProfiles = getClassesByPrefix(targetObfuscated, group).keySet();
-            targetClassProfiles.removeAll(matches.values());
+            List<String> sourceClassProfiles = sourcePackages.getClassesByPrefix(group).stream()
+                    .filter(s -> sourceObfuscated.containsKey(s) && !classMatchResult.isSourceMatched(s))
+                    .collect(Collectors.toList());
+            List<String> targetClassProfiles = targetPackages.getClassesByPrefix(group).stream()
+                    .filter(t -> targetObfuscated.containsKey(t) && !classMatchResult.isTargetMatched(t))
+                    .collect(Collectors.toList());
 //            if (sourceClassProfiles.size() == 1 && targetClassProfiles.size() == 1) {
 //                addToMatch(sourceClassProfiles.iterator().next(), targetClassProfiles.iterator().next());
 //            }
+            FuzzyHashIndex<String> targetIndex = new FuzzyHashIndex<>(similarityCache);
+            for (String t: targetClassProfiles) {
+                targetIndex.add(t, targetObfuscated.get(t).getParsedLevel0FuzzyHash());
+            }
             for (String s: sourceClassProfiles) {
-                for (String t: targetClassProfiles) {
-                    ClassProfile scp = sourceObfuscated.get(s);
+                ClassProfile scp = sourceObfuscated.get(s);
+                // only classes sharing a 7-gram (or with a short digest) can be similar
+                for (String t: targetIndex.getCandidates(scp.getParsedLevel0FuzzyHash())) {
                     ClassProfile tcp = targetObfuscated.get(t);
 
                     if (isClassSimilarPrefilter(scp, tcp)) {
@@ -228,26 +231,103 @@ public class ClassMatcher {
 //        handlePotentialMatches(false);
 
         Set<String> sourceRemaining = new TreeSet<>(source.keySet());
-        sourceRemaining.removeAll(matches.keySet());
+        sourceRemaining.removeIf(classMatchResult::isSourceMatched);
         logger.info("Source Remaining size: " + sourceRemaining.size());
 
         Set<String> targetRemaining = new TreeSet<>(target.keySet());
-        targetRemaining.removeAll(matches.values());
+        targetRemaining.removeIf(classMatchResult::isTargetMatched);
         logger.info("Target Remaining size: " + targetRemaining.size());
 
-        for (String s: sourceRemaining) {
-            ClassProfile scp = source.get(s);
-            for (String t: targetRemaining) {
-                ClassProfile tcp = target.get(t);
-                if (compareByLevel0FuzzyHash(scp, tcp, Configs.pairwiseSimilarityThreshold)) {
-                    addToPotentialMatch(s, t);
-                }
+        FuzzyHashIndex<String> targetIndex = new FuzzyHashIndex<>(similarityCache);
+        for (String t: targetRemaining) {
+            targetIndex.add(t, target.get(t).getParsedLevel0FuzzyHash());
+        }
+        List<String> sourceList = new ArrayList<>(sourceRemaining);
+        List<List<String>> similarTargets = findCandidates(sourceList,
+                s -> targetIndex.getSimilar(source.get(s).getParsedLevel0FuzzyHash(), Configs.pairwiseSimilarityThreshold));
+        for (int i = 0; i < sourceList.size(); i++) {
+            for (String t: similarTargets.get(i)) {
+                addToPotentialMatch(sourceList.get(i), t);
             }
         }
+
+        if (Configs.minHashPotentialMatch) {
+            matchBySketch(sourceList, targetRemaining);
+        }
 //        handlePotentialMatches(false);
 
     }
 
+    // Classes whose fuzzy hashes differ can still share most of their methods, strings and field types. Their best
+    // sketch candidate is accepted on the estimated Jaccard similarity alone, so this is off unless configured.
+    private void matchBySketch(List<String> sourceList, Set<String> targetRemaining) {
+        MinHashIndex<String> sketchIndex = new MinHashIndex<>();
+        for (String t: targetRemaining) {
+            sketchIndex.add(t, target.get(t).getMinHashSketch(Configs.minHashSketchSize));
+        }
+        sourceList.removeIf(classMatchResult::hasPotentialMatch);
+        List<List<String>> sketchTargets = findCandidates(sourceList,
+                s -> sketchIndex.getSimilar(source.get(s).getMinHashSketch(Configs.minHashSketchSize), Configs.minHashSimilarityThreshold, 1));
+        int sketchMatched = 0;
+        for (int i = 0; i < sourceList.size(); i++) {
+            if (!sketchTargets.get(i).isEmpty()) {
+                addToPotentialMatch(sourceList.get(i), sketchTargets.get(i).get(0));
+                sketchMatched++;
+            }
+        }
+        logger.info("MinHash potential match size: " + sketchMatched);
+    }
+
+    // The candidates of every source class, in the order of the sources. With more than one match thread the
+    // parallel stream splits the sources into work-stealing tasks, each collecting the candidates of its sources
+    // in its own list. The lists are joined in source order, so the result does not depend on the thread count.
+    // The indexes are only read while the candidates are searched.
+    private static List<List<String>> findCandidates(List<String> sources, Function<String, List<String>> candidates) {
+        if (Configs.matchThreadNum <= 1 || sources.size() <= 1) {
+            return sources.stream().map(candidates).collect(Collectors.toList());
+        }
+        ForkJoinPool pool = new ForkJoinPool(Configs.matchThreadNum);
+        try {
+            return pool.submit(() -> sources.parallelStream()
+                    .map(candidates)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Reduces the one-to-many potential matches to a one-to-one matching with the highest total similarity.
+    // A pair scores its fuzzy hash similarity or its estimated Jaccard similarity, whichever is higher.
+    private void assignPotentialMatches() {
+        ClassRegistry sourceRegistry = classMatchResult.getSourceRegistry();
+        ClassRegistry targetRegistry = classMatchResult.getTargetRegistry();
+        int[] sourceIds = classMatchResult.getPotentialSourceIds();
+        // the target ids are the columns, targets without edges are never reached
+        SparseAssignment assignment = new SparseAssignment(sourceIds.length, targetRegistry.size());
+        for (int i = 0; i < sourceIds.length; i++) {
+            ClassProfile scp = source.get(sourceRegistry.getName(sourceIds[i]));
+            for (int t: classMatchResult.getPotentialTargetIds(sourceIds[i])) {
+                ClassProfile tcp = target.get(targetRegistry.getName(t));
+                if (scp == null || tcp == null) {
+                    continue;
+                }
+                double score = Math.max(FuzzyHashComparator.score(scp.getParsedLevel0FuzzyHash(), tcp.getParsedLevel0FuzzyHash(), 0, similarityCache),
+                        MinHash.estimateJaccard(scp.getMinHashSketch(Configs.minHashSketchSize), tcp.getMinHashSketch(Configs.minHashSketchSize)));
+                assignment.addEdge(i, t, score);
+            }
+        }
+        int[] assigned = assignment.solve();
+        for (int i = 0; i < assigned.length; i++) {
+            if (assigned[i] >= 0) {
+                classMatchResult.setPotentialMatch(sourceIds[i], assigned[i]);
+            } else {
+                classMatchResult.removePotentialMatch(sourceIds[i]);
+            }
+        }
+    }
+
     private Map<String, String> findMatchedGroups() {
         Map<String, String> ret = new TreeMap<>();
         Set<String> partiallyObfuscated = getPartiallyObfuscatedClasses(source).keySet();
@@ -260,7 +340,7 @@ public class ClassMatcher {
             }
         }
 
-        for (Map.Entry<String, String> entry: matches.entrySet()) {
+        for (Map.Entry<String, String> entry: classMatchResult.getMatches().entrySet()) {
             String s = entry.getKey();
             String t = entry.getValue();
             if(s.lastIndexOf('.') != -1 && t.lastIndexOf('.') != -1) {
@@ -275,11 +355,9 @@ public class ClassMatcher {
 
     private void handlePotentialMatches(boolean useIndex) {
         // handling one-to-many
-        Iterator<Map.Entry<String, TreeSet<String>>> it = potentialMatches.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, TreeSet<String>> entry = it.next();
+        for (Map.Entry<String, List<String>> entry: classMatchResult.getPotentialMatches().entrySet()) {
             String source = entry.getKey();
-            Set<String> targets = entry.getValue();
+            List<String> targets = entry.getValue();
             if (targets.size() > 1) {
                 logger.info(source + " multiple targets: " + targets);
                 if (useIndex) {
@@ -288,15 +366,15 @@ public class ClassMatcher {
                 }
 
             } else {
-                addToMatch(source, targets.iterator().next());
-                it.remove();
+                addToMatch(source, targets.get(0));
+                classMatchResult.removePotentialMatch(source);
             }
         }
 
 //        potentialMatches.clear();
     }
 
-    private String getStringWithLeastAlphabetDistance(String target, Set<String> candidate) {
+    private String getStringWithLeastAlphabetDistance(String target, Collection<String> candidate) {
         String ret = "";
         int min = Integer.MAX_VALUE;
         for (String s: candidate) {
@@ -328,21 +406,21 @@ public class ClassMatcher {
 
 
 
-    public static boolean compareByLevel0FuzzyHash(BasicClassProfile s, BasicClassProfile t, double threshold) {
-        return ClassComparator.compareByLevel0FuzzyHash(s, t, threshold);
+    private boolean compareByLevel0FuzzyHash(BasicClassProfile s, BasicClassProfile t, double threshold) {
+        return ClassComparator.compareByLevel0FuzzyHash(s, t, threshold, similarityCache);
     }
 
     private void resolveDependencies(Set<String> sDependencies, Set<String> tDependencies) {
         for (String s: sDependencies) {
             ClassProfile scp = source.get(s);
             if (scp != null && !Utils.isAndroidType(s)) {
-                if (matches.containsKey(scp.getName())) {
+                if (classMatchResult.isSourceMatched(scp.getName())) {
                     continue;
                 }
                 for (String t: tDependencies) {
                     ClassProfile tcp = target.get(t);
                     if (tcp != null && !Utils.isAndroidType(t)) {
-                        if (matches.containsKey(tcp.getName())) {
+                        if (classMatchResult.isTargetMatched(tcp.getName())) {
                             continue;
                         }
                         if (compareByLevel0FuzzyHash(scp, tcp, 0.7)) {
@@ -380,12 +458,7 @@ public class ClassMatcher {
     }
 
     private void addToPotentialMatch(String s, String t) {
-        if (potentialMatches.containsKey(s)) {
-            Set<String> matched = potentialMatches.get(s);
-            matched.add(t);
-        } else {
-            potentialMatches.put(s, new TreeSet<>(Collections.singleton(t)));
-        }
+        classMatchResult.addPotentialMatch(s, t);
     }
 
     private void addToMatch(String s, String t) {
@@ -403,8 +476,16 @@ public class ClassMatcher {
         classMatchResult.addAdded(s);
     }
 
-    public static Map<String, Set<ClassProfile>> getFingerprintingMethodsByInstructionNum(Map<String, ClassProfile> m, int threshold) {
-        Map<String, Set<ClassProfile>> ret = new HashMap<>();
+    public static Map<Long, Set<ClassProfile>> getClassesByLevel0Hash(Map<String, ClassProfile> m) {
+        Map<Long, Set<ClassProfile>> ret = new HashMap<>();
+        for (ClassProfile cp: m.values()) {
+            ret.computeIfAbsent(cp.getLevel0Hash(), k -> new HashSet<>()).add(cp);
+        }
+        return ret;
+    }
+
+    public static Map<Long, Set<ClassProfile>> getFingerprintingMethodsByInstructionNum(Map<String, ClassProfile> m, int threshold) {
+        Map<Long, Set<ClassProfile>> ret = new HashMap<>();
         for (Map.Entry<String, ClassProfile> entry: m.entrySet()) {
             ClassProfile cp = entry.getValue();
             for (MethodProfile mp: cp.getMethodProfiles()) {
@@ -417,13 +498,13 @@ public class ClassMatcher {
         return ret;
     }
 
-    public static Map<String, Set<ClassProfile>> getFingerprintingMethodsByConstantStrings(Map<String, ClassProfile> m) {
-        Map<String, Set<ClassProfile>> ret = new HashMap<>();
+    public static Map<Long, Set<ClassProfile>> getFingerprintingMethodsByConstantStrings(Map<String, ClassProfile> m) {
+        Map<Long, Set<ClassProfile>> ret = new HashMap<>();
         for (Map.Entry<String, ClassProfile> entry: m.entrySet()) {
             ClassProfile cp = entry.getValue();
             List<String> constantString = cp.getConstantStrings();
             if (constantString.size() > 0) {
-                String hash = Utils.calculateHash(constantString);
+                long hash = Utils.calculateHash(constantString);
                 Set<ClassProfile> targets = ret.computeIfAbsent(hash, k -> new HashSet<>());
                 targets.add(cp);
             }
@@ -435,19 +516,6 @@ public class ClassMatcher {
         return m.entrySet().stream().filter(e->!matched.contains(e.getKey())).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
     }
 
-    public static Map<String, ClassProfile> getClassWithNoPackage(Map<String, ClassProfile> m) {
-        return filterClasses(m, noPackage());
-    }
-
-    public static Map<String, ClassProfile> getClassesInPackage(Map<String, ClassProfile> m, String prefix) {
-        // consider only classes in package and ignore classes in subpackages
-        return filterClasses(m, inPackage(prefix));
-    }
-
-    public static Map<String, ClassProfile> getClassesByPrefix(Map<String, ClassProfile> m, String prefix) {
-        return filterClasses(m, startsWith(prefix));
-    }
-
     public static Map<String, ClassProfile> getFullyObfuscatedClasses(Map<String, ClassProfile> m) {
         return filterClasses(m, isFullyObfuscated());
     }
@@ -464,7 +532,7 @@ public class ClassMatcher {
         return filterClasses(m, isObfuscated());
     }
 
-    public static Map<String, ClassProfile> getUnmatchedClasses(Map<String, ClassProfile> m, Set<String> matched) {
+    public static Map<String, ClassProfile> getUnmatchedClasses(Map<String, ClassProfile> m, Predicate<String> matched) {
         return filterClasses(m, notMatched(matched));
     }
 
@@ -473,22 +541,10 @@ public class ClassMatcher {
         return m.entrySet().stream().filter(predicate).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
     }
 
-    private static Predicate<Map.Entry<String, ClassProfile>> notMatched(Set<String> s) {
-        return e->!s.contains(e.getKey());
+    private static Predicate<Map.Entry<String, ClassProfile>> notMatched(Predicate<String> matched) {
+        return e->!matched.test(e.getKey());
     }
 
-    private static Predicate<Map.Entry<String, ClassProfile>> inPackage(String prefix) {
-        return e->e.getValue().getName().startsWith(prefix) && e.getValue().getName().chars().filter(ch -> ch == '.').count() == prefix.chars().filter(ch -> ch == '.').count();
-    }
-
-
-    private static Predicate<Map.Entry<String, ClassProfile>> startsWith(String prefix) {
-        return e->e.getValue().getName().startsWith(prefix);
-    }
-
-    private static Predicate<Map.Entry<String, ClassProfile>> noPackage() {
-        return e->e.getValue().getName().chars().filter(ch -> ch == '.').count() == 0;
-    }
     private static Predicate<Map.Entry<String, ClassProfile>> notObfuscated() {
         return e->e.getValue().getObfuscationLevel() == ObfuscationLevel.NON;
     }
@@ -527,7 +583,7 @@ public class ClassMatcher {
     }
 
     public Map<String, String> getMatches() {
-        return this.matches;
+        return classMatchResult.getMatches();
     }
 
     public int getMatchSize() {
@@ -538,11 +594,11 @@ public class ClassMatcher {
 
 
     public int getAddedSize() {
-        return classMatchResult.getAdded().size();
+        return classMatchResult.getAddedSize();
     }
 
     public int getDeletedSize() {
-        return classMatchResult.getDeleted().size();
+        return classMatchResult.getDeletedSize();
     }
 
     public Set<String> getAllClass(Map<String, ClassProfile> m) {
@@ -559,12 +615,12 @@ public class ClassMatcher {
         for (Map.Entry<String, ClassProfile> entry: source.entrySet()) {
             String className = entry.getKey();
             ClassProfile cp = entry.getValue();
-            if (!matches.containsKey(className) && !potentialMatches.containsKey(className)) {
+            if (!classMatchResult.isSourceMatched(className) && !classMatchResult.hasPotentialMatch(className)) {
                 ret.add(className);
             }
             if (cp.getInnerClasses().size() > 0) {
                 for (String s: cp.getInnerClasses().keySet()) {
-                    if (!matches.containsKey(s) && !potentialMatches.containsKey(s)) {
+                    if (!classMatchResult.isSourceMatched(s) && !classMatchResult.hasPotentialMatch(s)) {
                         ret.add(s);
                     }
                 }
@@ -578,12 +634,12 @@ public class ClassMatcher {
         for (Map.Entry<String, ClassProfile> entry: target.entrySet()) {
             String className = entry.getKey();
             ClassProfile cp = entry.getValue();
-            if (!matches.containsValue(className) && !classMatchResult.getTargetPotentialMatch().contains(className)) {
+            if (!classMatchResult.isTargetMatched(className) && !classMatchResult.isTargetPotentialMatch(className)) {
                 ret.add(className);
             }
             if (cp.getInnerClasses().size() > 0) {
                 for (String s: cp.getInnerClasses().keySet()) {
-                    if (!matches.containsKey(s) && !classMatchResult.getTargetPotentialMatch().contains(s)) {
+                    if (!classMatchResult.isTargetMatched(s) && !classMatchResult.isTargetPotentialMatch(s)) {
                         ret.add(s);
                     }
                 }
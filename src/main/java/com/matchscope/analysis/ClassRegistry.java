@@ -0,0 +1,63 @@
+package com.matchscope.analysis;
+
+import com.matchscope.profile.ClassProfile;
+
+import java.util.*;
+
+// Dense int ids for the classes and inner classes of one app. The ids follow the LengthAlphabeticalComparator
+// order of the names, so walking the ids in ascending order visits the classes in the order the results are
+// printed in, and an id set can be turned back into sorted names without sorting.
+public class ClassRegistry {
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final BitSet innerClasses;
+
+    public ClassRegistry(Collection<String> classNames) {
+        TreeSet<String> sorted = new TreeSet<>(new ClassMatcher.LengthAlphabeticalComparator());
+        sorted.addAll(classNames);
+        this.names = sorted.toArray(new String[0]);
+        this.ids = new HashMap<>(names.length * 2);
+        this.innerClasses = new BitSet(names.length);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+            if (names[i].contains("$")) {
+                innerClasses.set(i);
+            }
+        }
+    }
+
+    public static ClassRegistry of(Map<String, ClassProfile> classes) {
+        List<String> classNames = new ArrayList<>();
+        for (Map.Entry<String, ClassProfile> entry: classes.entrySet()) {
+            classNames.add(entry.getKey());
+            classNames.addAll(entry.getValue().getInnerClasses().keySet());
+        }
+        return new ClassRegistry(classNames);
+    }
+
+    // -1 for classes not in the registry
+    public int getId(String className) {
+        Integer id = ids.get(className);
+        return id == null ? -1 : id;
+    }
+
+    public int requireId(String className) {
+        Integer id = ids.get(className);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown class: " + className);
+        }
+        return id;
+    }
+
+    public String getName(int id) {
+        return names[id];
+    }
+
+    public boolean isInnerClass(int id) {
+        return innerClasses.get(id);
+    }
+
+    public int size() {
+        return names.length;
+    }
+}
@@ -7,4 +7,15 @@ public class Configs {
     public static double pairwiseSimilarityThreshold = 0.6;
     public static double methodLevel0FuzzyHashSimilarityThreshold = 0.4;
     public static double methodLevel2FuzzyHashSimilarityThreshold = 0.2;
+    // MinHash sketch size and LSH bands of the class feature sets, rows per band = size / bands
+    public static int minHashSketchSize = 128;
+    public static int minHashBandNum = 32;
+    // the estimated Jaccard similarity making a potential match
+    public static double minHashSimilarityThreshold = 0.8;
+    // classes with no fuzzy hash candidate are matched by their sketches alone, with no fuzzy hash check
+    public static boolean minHashPotentialMatch = false;
+    // fuzzy hash scores cached per analysis, rounded down to a power of two
+    public static int similarityCacheSize = 1 << 18;
+    // threads matching independent class pairs, 1 matches them sequentially
+    public static int matchThreadNum = 1;
 }
@@ -0,0 +1,179 @@
+package com.matchscope.analysis;
+
+import com.matchscope.profile.FuzzyHash;
+
+import java.util.List;
+
+// Compares parsed SpamSum hashes the way ssdeep does. Only digests of the same block size are comparable,
+// so hashes whose block sizes differ by more than a factor of two score 0 without further work.
+// Digests of at least 7 characters must share a 7-gram before their edit distance is computed.
+// The score is the best 1 - distance / max length over the comparable digests.
+// The edit distance uses Myers' bit-parallel algorithm with the digests of the first hash as patterns,
+// scoreAll() loads them once and scores the first hash against every candidate.
+// The matchers of an analysis pass its SimilarityCache, scores are read through it. Without a cache every score
+// is computed.
+public class FuzzyHashComparator {
+    // dense Peq tables of the two digests of the hash being scored, indexed by character
+    private static final ThreadLocal<long[][]> peqTables = ThreadLocal.withInitial(() -> new long[2][256]);
+
+    public static boolean similar(FuzzyHash h1, FuzzyHash h2, double threshold) {
+        return similar(h1, h2, threshold, null);
+    }
+
+    public static boolean similar(FuzzyHash h1, FuzzyHash h2, double threshold, SimilarityCache cache) {
+        return score(h1, h2, threshold, cache) >= threshold;
+    }
+
+    public static double score(FuzzyHash h1, FuzzyHash h2) {
+        return score(h1, h2, 0, null);
+    }
+
+    public static double score(FuzzyHash h1, FuzzyHash h2, double threshold) {
+        return score(h1, h2, threshold, null);
+    }
+
+    // scores below the threshold are not computed exactly, 0 is returned for them
+    public static double score(FuzzyHash h1, FuzzyHash h2, double threshold, SimilarityCache c) {
+        double ret = c == null ? Double.NaN : c.get(h1.getId(), h2.getId(), threshold);
+        if (!Double.isNaN(ret)) {
+            return ret;
+        }
+        long[][] peq = loadPeqTables(h1);
+        try {
+            ret = computeScore(h1, h2, threshold, peq);
+        } finally {
+            clearPeqTables(h1, peq);
+        }
+        if (c != null) {
+            c.put(h1.getId(), h2.getId(), threshold, ret);
+        }
+        return ret;
+    }
+
+    public static double[] scoreAll(FuzzyHash h, List<FuzzyHash> candidates, double threshold) {
+        return scoreAll(h, candidates, threshold, null);
+    }
+
+    public static double[] scoreAll(FuzzyHash h, List<FuzzyHash> candidates, double threshold, SimilarityCache c) {
+        double[] ret = new double[candidates.size()];
+        long[][] peq = null;
+        try {
+            for (int i = 0; i < ret.length; i++) {
+                FuzzyHash candidate = candidates.get(i);
+                ret[i] = c == null ? Double.NaN : c.get(h.getId(), candidate.getId(), threshold);
+                if (!Double.isNaN(ret[i])) {
+                    continue;
+                }
+                // the Peq tables are only loaded once a score is not cached
+                if (peq == null) {
+                    peq = loadPeqTables(h);
+                }
+                ret[i] = computeScore(h, candidate, threshold, peq);
+                if (c != null) {
+                    c.put(h.getId(), candidate.getId(), threshold, ret[i]);
+                }
+            }
+        } finally {
+            if (peq != null) {
+                clearPeqTables(h, peq);
+            }
+        }
+        return ret;
+    }
+
+    private static double computeScore(FuzzyHash h1, FuzzyHash h2, double threshold, long[][] peq) {
+        int b1 = h1.getBlockSize();
+        int b2 = h2.getBlockSize();
+        if (b1 == b2) {
+            double s1 = scoreDigests(h1.getDigest1(), h1.getGrams1(), peq[0], h2.getDigest1(), h2.getGrams1(), threshold);
+            double s2 = scoreDigests(h1.getDigest2(), h1.getGrams2(), peq[1], h2.getDigest2(), h2.getGrams2(), Math.max(threshold, s1));
+            return Math.max(s1, s2);
+        } else if (b1 == 2 * b2) {
+            return scoreDigests(h1.getDigest1(), h1.getGrams1(), peq[0], h2.getDigest2(), h2.getGrams2(), threshold);
+        } else if (b2 == 2 * b1) {
+            return scoreDigests(h1.getDigest2(), h1.getGrams2(), peq[1], h2.getDigest1(), h2.getGrams1(), threshold);
+        }
+        return 0;
+    }
+
+    private static double scoreDigests(String d1, long[] g1, long[] peq, String d2, long[] g2, double threshold) {
+        if (d1.equals(d2)) {
+            return 1;
+        }
+        int maxLen = Math.max(d1.length(), d2.length());
+        if (d1.length() >= FuzzyHash.GRAM_SIZE && d2.length() >= FuzzyHash.GRAM_SIZE && !FuzzyHash.hasCommonGram(g1, g2)) {
+            return 0;
+        }
+        int bound = BasicComparator.getMaxDistance(maxLen, threshold);
+        int distance;
+        if (d1.length() <= FuzzyHash.MAX_BIT_PARALLEL_LENGTH) {
+            distance = bitParallelDistance(peq, d1.length(), d2, bound);
+        } else {
+            distance = BasicComparator.boundedLevenshteinDistance(d1, d2, bound);
+        }
+        if (distance > bound) {
+            return 0;
+        }
+        return 1 - (double) distance / maxLen;
+    }
+
+    // Myers/Hyyro bit-vector Levenshtein distance of a pattern of at most 64 characters against text,
+    // one column of the dp matrix per character of the text. Returns bound + 1 once the distance cannot
+    // get back below the bound.
+    private static int bitParallelDistance(long[] peq, int m, String text, int bound) {
+        int n = text.length();
+        if (Math.abs(m - n) > bound) {
+            return bound + 1;
+        }
+        if (m == 0) {
+            return n;
+        }
+        long last = 1L << (m - 1);
+        long pv = -1L;
+        long mv = 0L;
+        int distance = m;
+        for (int j = 0; j < n; j++) {
+            long eq = peq[text.charAt(j) & 0xff];
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                distance++;
+            } else if ((mh & last) != 0) {
+                distance--;
+            }
+            // the distance decreases by at most one per remaining column
+            if (distance - (n - j - 1) > bound) {
+                return bound + 1;
+            }
+            ph = (ph << 1) | 1L;
+            mh = mh << 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+        }
+        return distance;
+    }
+
+    private static long[][] loadPeqTables(FuzzyHash h) {
+        long[][] peq = peqTables.get();
+        loadPeqTable(peq[0], h.getPeqChars1(), h.getPeqMasks1());
+        loadPeqTable(peq[1], h.getPeqChars2(), h.getPeqMasks2());
+        return peq;
+    }
+
+    private static void loadPeqTable(long[] table, char[] chars, long[] masks) {
+        for (int i = 0; i < chars.length; i++) {
+            table[chars[i] & 0xff] = masks[i];
+        }
+    }
+
+    private static void clearPeqTables(FuzzyHash h, long[][] peq) {
+        for (char c: h.getPeqChars1()) {
+            peq[0][c & 0xff] = 0;
+        }
+        for (char c: h.getPeqChars2()) {
+            peq[1][c & 0xff] = 0;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.matchscope.analysis;
+
+import com.matchscope.profile.FuzzyHash;
+
+import java.util.*;
+
+// Inverted index from (block size, 7-gram) to the items whose fuzzy hash has that 7-gram in the digest of that
+// block size. FuzzyHashComparator only scores digests of the same block size and, when both digests have at least
+// 7 characters, only if they share a 7-gram. So every item that can score above 0 against a query is found
+// through the 7-grams of the query, or among the digests shorter than 7 characters which are compared without
+// the 7-gram check. All other items are never scored.
+public class FuzzyHashIndex<T> {
+    private final SimilarityCache cache;
+    private final List<T> items = new ArrayList<>();
+    private final List<FuzzyHash> hashes = new ArrayList<>();
+    private final Map<Integer, Map<Long, List<Integer>>> gramIndex = new HashMap<>();
+    // digests shorter than 7 characters, they are candidates for every query digest of their block size
+    private final Map<Integer, List<Integer>> shortDigests = new HashMap<>();
+    // all digests, they are candidates for short query digests of their block size
+    private final Map<Integer, List<Integer>> allDigests = new HashMap<>();
+
+    public FuzzyHashIndex() {
+        this(null);
+    }
+
+    // the scores are read through the cache, if there is one
+    public FuzzyHashIndex(SimilarityCache cache) {
+        this.cache = cache;
+    }
+
+    public void add(T item, FuzzyHash h) {
+        int id = items.size();
+        items.add(item);
+        hashes.add(h);
+        addDigest(id, h.getBlockSize(), h.getDigest1(), h.getGrams1());
+        addDigest(id, h.getBlockSize() * 2, h.getDigest2(), h.getGrams2());
+    }
+
+    private void addDigest(int id, int blockSize, String digest, long[] grams) {
+        allDigests.computeIfAbsent(blockSize, k -> new ArrayList<>()).add(id);
+        if (digest.length() < FuzzyHash.GRAM_SIZE) {
+            shortDigests.computeIfAbsent(blockSize, k -> new ArrayList<>()).add(id);
+            return;
+        }
+        Map<Long, List<Integer>> index = gramIndex.computeIfAbsent(blockSize, k -> new HashMap<>());
+        long previous = -1;
+        for (long gram: grams) {
+            // grams are sorted, add every item once per gram
+            if (gram != previous) {
+                index.computeIfAbsent(gram, k -> new ArrayList<>()).add(id);
+                previous = gram;
+            }
+        }
+    }
+
+    // items that may score above 0 against h, in the order they were added
+    public List<T> getCandidates(FuzzyHash h) {
+        List<T> ret = new ArrayList<>();
+        for (int id: getCandidateIds(h)) {
+            ret.add(items.get(id));
+        }
+        return ret;
+    }
+
+    // items scoring at least threshold against h, in the order they were added
+    public List<T> getSimilar(FuzzyHash h, double threshold) {
+        return new ArrayList<>(getScores(h, threshold).keySet());
+    }
+
+    // items scoring at least threshold against h with their scores, in the order they were added
+    public Map<T, Double> getScores(FuzzyHash h, double threshold) {
+        int[] ids = getCandidateIds(h);
+        List<FuzzyHash> candidates = new ArrayList<>(ids.length);
+        for (int id: ids) {
+            candidates.add(hashes.get(id));
+        }
+        double[] scores = FuzzyHashComparator.scoreAll(h, candidates, threshold, cache);
+        Map<T, Double> ret = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (scores[i] >= threshold) {
+                ret.put(items.get(ids[i]), scores[i]);
+            }
+        }
+        return ret;
+    }
+
+    private int[] getCandidateIds(FuzzyHash h) {
+        BitSet candidates = new BitSet(items.size());
+        collect(candidates, h.getBlockSize(), h.getDigest1(), h.getGrams1());
+        collect(candidates, h.getBlockSize() * 2, h.getDigest2(), h.getGrams2());
+        return candidates.stream().toArray();
+    }
+
+    private void collect(BitSet candidates, int blockSize, String digest, long[] grams) {
+        if (digest.length() < FuzzyHash.GRAM_SIZE) {
+            addAll(candidates, allDigests.get(blockSize));
+            return;
+        }
+        addAll(candidates, shortDigests.get(blockSize));
+        Map<Long, List<Integer>> index = gramIndex.get(blockSize);
+        if (index == null) {
+            return;
+        }
+        for (long gram: grams) {
+            addAll(candidates, index.get(gram));
+        }
+    }
+
+    private static void addAll(BitSet candidates, List<Integer> ids) {
+        if (ids != null) {
+            for (int id: ids) {
+                candidates.set(id);
+            }
+        }
+    }
+
+    public int size() {
+        return items.size();
+    }
+}
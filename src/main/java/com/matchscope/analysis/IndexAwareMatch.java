@@ -4,32 +4,39 @@ import com.matchscope.profile.ClassProfile;
 import com.matchscope.Utils;
 
 import java.util.*;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class IndexAwareMatch {
-    private final SortedMap<String, String> matches;
-    private final Map<String, TreeSet<String>> potentialMatches;
+    private final ClassMatchResult classMatchResult;
     private final Map<String, ClassProfile> sourceClasses;
     private final Map<String, ClassProfile> targetClasses;
+    private final PackageTrie sourcePackages;
+    private final PackageTrie targetPackages;
+    private final SimilarityCache similarityCache;
     private final Logger logger = LoggerFactory.getLogger(IndexAwareMatch.class);
-    private final TreeSet<String> added;
-    private final TreeSet<String> deleted;
 
-    public IndexAwareMatch(Map<String, ClassProfile> sourceClasses, Map<String, ClassProfile> targetClasses, ClassMatchResult classMatchResult) {
+    public IndexAwareMatch(Map<String, ClassProfile> sourceClasses, Map<String, ClassProfile> targetClasses, ClassMatchResult classMatchResult,
+                           SimilarityCache similarityCache, PackageTrie sourcePackages, PackageTrie targetPackages) {
+        this.similarityCache = similarityCache;
         this.sourceClasses = sourceClasses;
         this.targetClasses = targetClasses;
-        this.matches = classMatchResult.getMatches();
-        this.potentialMatches = classMatchResult.getPotentialMatches();
-        this.added = classMatchResult.getAdded();
-        this.deleted = classMatchResult.getDeleted();
+        this.sourcePackages = sourcePackages;
+        this.targetPackages = targetPackages;
+        this.classMatchResult = classMatchResult;
         getAnchorMatches();
         doIndexAwareMatch();
     }
 
+    // the anchors split the packages into segments matched by their index, the more anchors the smaller the segments
     private void getAnchorMatches() {
-        getUniqueMatchByLevel0Hash();
+        addAnchorMatches("Level0Hash", ClassMatcher::getClassesByLevel0Hash);
+        addAnchorMatches("Instruction Fingerprinting Methods",
+                m -> ClassMatcher.getFingerprintingMethodsByInstructionNum(m, Configs.instructionNumThreshold));
+        addAnchorMatches("Constant String Fingerprinting", ClassMatcher::getFingerprintingMethodsByConstantStrings);
+        logger.info("Anchor Match size: " + classMatchResult.getMatchSize());
     }
 
 
@@ -43,18 +50,19 @@ public class IndexAwareMatch {
     }
 
     private void doIndexAwareMatchForGroup(String sourceGroup, String targetGroup) {
-        SortedSet<String> sourceClassProfiles = new TreeSet<>(new ClassMatcher.LengthAlphabeticalComparator());
-        SortedSet<String> targetClassProfiles = new TreeSet<>(new ClassMatcher.LengthAlphabeticalComparator());
+        // the classes of a package come sorted from the trie of the app, only the ones still to match are kept
+        List<String> sourceClassProfiles;
+        List<String> targetClassProfiles;
 
         if (sourceGroup.equals("") && targetGroup.equals("")) {
 //            logger.debug("Matching classes with no group");
-            sourceClassProfiles.addAll(ClassMatcher.getClassWithNoPackage(sourceClasses).keySet());
-            targetClassProfiles.addAll(ClassMatcher.getClassWithNoPackage(targetClasses).keySet());
+            sourceClassProfiles = getGroupClasses(sourcePackages.getClassesWithNoPackage(), sourceClasses);
+            targetClassProfiles = getGroupClasses(targetPackages.getClassesWithNoPackage(), targetClasses);
 
         } else {
 //            logger.debug("Matching: " + sourceGroup + " " + targetGroup);
-            sourceClassProfiles.addAll(ClassMatcher.getClassesInPackage(sourceClasses, sourceGroup).keySet());
-            targetClassProfiles.addAll(ClassMatcher.getClassesInPackage(targetClasses, targetGroup).keySet());
+            sourceClassProfiles = getGroupClasses(sourcePackages.getClassesInPackage(sourceGroup), sourceClasses);
+            targetClassProfiles = getGroupClasses(targetPackages.getClassesInPackage(targetGroup), targetClasses);
         }
 
         if (sourceClassProfiles.size() == 0 && targetClassProfiles.size() == 0) {
@@ -79,38 +87,21 @@ public class IndexAwareMatch {
                     String s = sourceList.get(i);
                     String t = targetList.get(i);
                     if (compareByLevel0FuzzyHash(s, t, Configs.classLevel0FuzzyHashSimilarityThreshold)) {
-                        matches.put(s, t);
+                        classMatchResult.updateIdentical(s, t);
                     } else {
                         count++;
                     }
                 }
             } else if (sourceList.size() == 0 && targetList.size() != 0){
-                added.addAll(targetList);
+                classMatchResult.addAddedAll(targetList);
             } else if (sourceList.size() != 0 && targetList.size() == 0) {
-                deleted.addAll(sourceList);
+                classMatchResult.addDeletedAll(sourceList);
             } else {
-                ListIterator<String> sourceIt = sourceList.listIterator();
-                while (sourceIt.hasNext()) {
-                    String s = sourceIt.next();
-                    ListIterator<String> targetIt = targetList.listIterator();
-
-                    while (targetIt.hasNext()) {
-                        String t = targetIt.next();
-                        ClassProfile scp = sourceClasses.get(s);
-                        ClassProfile tcp = targetClasses.get(t);
-//                        System.out.println(scp.getName() + " " + tcp.getName() + " " + scp.getLevel0FeatureString() + " " + tcp.getLevel0FeatureString());
-                        if (compareByLevel0FuzzyHash(scp, tcp, Configs.classLevel0FuzzyHashSimilarityThreshold)) {
-                            matches.put(scp.getName(), tcp.getName());
-                            sourceIt.remove();
-                            targetIt.remove();
-                            break;
-                        }
-                    }
-                }
+                matchByAssignment(sourceList, targetList);
                 if (sourceList.size() > 0 && targetList.size() == 0) {
-                    deleted.addAll(sourceList);
+                    classMatchResult.addDeletedAll(sourceList);
                 } else if (sourceList.size() == 0 && targetList.size() > 0) {
-                    added.addAll(targetList);
+                    classMatchResult.addAddedAll(targetList);
                 } else {
                     logger.debug("Unmatched: " + sourceList + " " + targetList);
                 }
@@ -119,6 +110,55 @@ public class IndexAwareMatch {
         }
     }
 
+    private static List<String> getGroupClasses(List<String> packageClasses, Map<String, ClassProfile> classes) {
+        List<String> ret = new ArrayList<>(packageClasses.size());
+        for (String c: packageClasses) {
+            if (classes.containsKey(c)) {
+                ret.add(c);
+            }
+        }
+        return ret;
+    }
+
+    // Matches the classes of two segments of different size one-to-one, maximizing the sum of the fuzzy hash
+    // scores of the pairs above the threshold. The candidate pairs come from the 7-gram index, the matched
+    // classes are removed from both lists.
+    private void matchByAssignment(List<String> sourceList, List<String> targetList) {
+        FuzzyHashIndex<Integer> targetIndex = new FuzzyHashIndex<>(similarityCache);
+        for (int j = 0; j < targetList.size(); j++) {
+            targetIndex.add(j, targetClasses.get(targetList.get(j)).getParsedLevel0FuzzyHash());
+        }
+        SparseAssignment assignment = new SparseAssignment(sourceList.size(), targetList.size());
+        for (int i = 0; i < sourceList.size(); i++) {
+            ClassProfile scp = sourceClasses.get(sourceList.get(i));
+            Map<Integer, Double> scores = targetIndex.getScores(scp.getParsedLevel0FuzzyHash(), Configs.classLevel0FuzzyHashSimilarityThreshold);
+            for (Map.Entry<Integer, Double> entry: scores.entrySet()) {
+                assignment.addEdge(i, entry.getKey(), entry.getValue());
+            }
+        }
+        int[] assigned = assignment.solve();
+        List<String> sourceRemaining = new ArrayList<>();
+        boolean[] targetMatched = new boolean[targetList.size()];
+        for (int i = 0; i < assigned.length; i++) {
+            if (assigned[i] >= 0) {
+                classMatchResult.updateIdentical(sourceList.get(i), targetList.get(assigned[i]));
+                targetMatched[assigned[i]] = true;
+            } else {
+                sourceRemaining.add(sourceList.get(i));
+            }
+        }
+        List<String> targetRemaining = new ArrayList<>();
+        for (int j = 0; j < targetList.size(); j++) {
+            if (!targetMatched[j]) {
+                targetRemaining.add(targetList.get(j));
+            }
+        }
+        sourceList.clear();
+        sourceList.addAll(sourceRemaining);
+        targetList.clear();
+        targetList.addAll(targetRemaining);
+    }
+
     public boolean compareByLevel0FuzzyHash(String s, String t, double threshold) {
         ClassProfile scp = sourceClasses.get(s);
         ClassProfile tcp = targetClasses.get(t);
@@ -126,99 +166,52 @@ public class IndexAwareMatch {
     }
 
     public boolean compareByLevel0FuzzyHash(ClassProfile s, ClassProfile t, double threshold) {
-        return ClassComparator.compareByLevel0FuzzyHash(s, t, threshold);
+        return ClassComparator.compareByLevel0FuzzyHash(s, t, threshold, similarityCache);
     }
 
 
-    private void getUniqueMatchByLevel0Hash() {
-        Map<String, String> sourceUniqueClasses = getUniqueLevel0Classes(this.sourceClasses);
-        Map<String, String> targetUniqueClasses = getUniqueLevel0Classes(this.targetClasses);
-        logger.info("Source Unique Class Num: " + sourceUniqueClasses.size());
-        logger.info("Source Unique Class Num: " + targetUniqueClasses.size());
-        for (Map.Entry<String, String> sourceEntry: sourceUniqueClasses.entrySet()) {
-            String sourceClassName = sourceEntry.getKey();
-            String sourceL0Hash = sourceEntry.getValue();
-            for (Map.Entry<String, String> targetEntry: targetUniqueClasses.entrySet()) {
-
-                if (targetEntry.getValue().equals(sourceL0Hash)) {
-                    matches.put(sourceClassName, targetEntry.getKey());
-                    break;
-                }
+    // Joins the unmatched classes of both sides on a fingerprint. A fingerprint had by exactly one class on each
+    // side joins the two classes, they become an anchor unless one of them is joined to another class by a
+    // different fingerprint. Building and probing the hash maps is linear in the number of classes.
+    private void addAnchorMatches(String fingerprintName, Function<Map<String, ClassProfile>, Map<Long, Set<ClassProfile>>> fingerprint) {
+        Map<String, ClassProfile> sourceUnmatched = ClassMatcher.getUnmatchedClasses(sourceClasses, classMatchResult::isSourceMatched);
+        Map<String, ClassProfile> targetUnmatched = ClassMatcher.getUnmatchedClasses(targetClasses, classMatchResult::isTargetMatched);
+        Map<Long, Set<ClassProfile>> sourceFingerprints = fingerprint.apply(sourceUnmatched);
+        Map<Long, Set<ClassProfile>> targetFingerprints = fingerprint.apply(targetUnmatched);
+        logger.info("Source " + fingerprintName + " Num: " + sourceFingerprints.size());
+        logger.info("Target " + fingerprintName + " Num: " + targetFingerprints.size());
+
+        Map<String, String> sourceToTarget = new HashMap<>();
+        Map<String, String> targetToSource = new HashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        for (Map.Entry<Long, Set<ClassProfile>> entry: sourceFingerprints.entrySet()) {
+            Set<ClassProfile> targetSet = targetFingerprints.get(entry.getKey());
+            if (entry.getValue().size() != 1 || targetSet == null || targetSet.size() != 1) {
+                continue;
             }
-        }
-        logger.info("Level0Hash Match size: " + matches.size());
-    }
-
-    private void getUniqueMatchByFingerprintingMethods() {
-        Map<String, ClassProfile> sourceUnmatched = ClassMatcher.getUnmatchedClasses(sourceClasses, matches.keySet());
-        Map<String, ClassProfile> targetUnmatched = ClassMatcher.getUnmatchedClasses(targetClasses, new HashSet<>(matches.values()));
-        logger.info("Source Not Matched size: " + sourceUnmatched.size());
-        logger.info("Target Not Matched size: " + targetUnmatched.size());
-
-        Map<String, Set<ClassProfile>> sourceMethods = ClassMatcher.getFingerprintingMethodsByInstructionNum(sourceUnmatched, Configs.instructionNumThreshold);
-        Map<String, Set<ClassProfile>> targetMethods = ClassMatcher.getFingerprintingMethodsByInstructionNum(targetUnmatched, Configs.instructionNumThreshold);
-        logger.info("Source Instruction Fingerprinting Methods Num: "+ sourceMethods.size());
-        logger.info("Target Instruction Fingerprinting Methods Num: "+ targetMethods.size());
-
-        comparingFingerprinting(sourceMethods, targetMethods);
-        logger.info("Fingerprint Match size: " + matches.size());
-        logger.info("Potential Match size: " + potentialMatches.size());
-
-        sourceMethods = ClassMatcher.getFingerprintingMethodsByConstantStrings(sourceUnmatched);
-        targetMethods = ClassMatcher.getFingerprintingMethodsByConstantStrings(targetUnmatched);
-        logger.info("Source Constant String Fingerprinting Methods Num: "+ sourceMethods.size());
-        logger.info("Target Constant String Fingerprinting Methods Num: "+ targetMethods.size());
-
-        comparingFingerprinting(sourceMethods, targetMethods);
-
-        logger.info("Fingerprint Match size: " + matches.size());
-        logger.info("Potential Match size: " + potentialMatches.size());
-
-
-    }
-
-    private void comparingFingerprinting(Map<String, Set<ClassProfile>> source, Map<String, Set<ClassProfile>> target) {
-        for (String s: source.keySet()) {
-            if (target.containsKey(s)) {
-                Set<ClassProfile> sourceSet = source.get(s);
-                Set<ClassProfile> targetSet = target.get(s);
-                if (sourceSet.size() == 1 && targetSet.size() == 1) {
-                    matches.put(sourceSet.iterator().next().getName(), targetSet.iterator().next().getName());
-                } else {
-                    for (ClassProfile scp : sourceSet) {
-                        for (ClassProfile tcp : targetSet) {
-                            if (ClassMatcher.compareByLevel0FuzzyHash(scp, tcp, Configs.classLevel0FuzzyHashSimilarityThreshold)) {
-                                addToPotentialMatches(scp.getName(), tcp.getName());
-                            }
-                        }
-                    }
-                }
+            String s = entry.getValue().iterator().next().getName();
+            String t = targetSet.iterator().next().getName();
+            String previousTarget = sourceToTarget.putIfAbsent(s, t);
+            if (previousTarget != null && !previousTarget.equals(t)) {
+                ambiguous.add(s);
+            }
+            String previousSource = targetToSource.putIfAbsent(t, s);
+            if (previousSource != null && !previousSource.equals(s)) {
+                ambiguous.add(s);
+                ambiguous.add(previousSource);
             }
-        }
-    }
-
-    private void addToPotentialMatches(String s, String t) {
-        Set<String> matched = potentialMatches.computeIfAbsent(s, k -> new TreeSet<>());
-        matched.add(t);
-    }
-
-    private Map<String, String> getUniqueLevel0Classes(Map<String, ClassProfile> m) {
-        Map<String, Set<String>> level0HashesMap = new HashMap<>();
-        Map<String, String> ret = new HashMap<>();
-        for (Map.Entry<String, ClassProfile> entry: m.entrySet()) {
-            String className = entry.getKey();
-            ClassProfile classProfile = entry.getValue();
-            Set<String> classSet = level0HashesMap.computeIfAbsent(classProfile.getLevel0Hash(), k -> new TreeSet<>());
-            classSet.add(className);
         }
 
-        for (Map.Entry<String, Set<String>> entry: level0HashesMap.entrySet()) {
-            if (entry.getValue().size() == 1) {
-                ret.put(entry.getValue().iterator().next(), entry.getKey());
+        int count = 0;
+        for (Map.Entry<String, String> entry: sourceToTarget.entrySet()) {
+            String s = entry.getKey();
+            String t = entry.getValue();
+            if (!ambiguous.contains(s) && s.equals(targetToSource.get(t))) {
+                classMatchResult.updateIdentical(s, t);
+                count++;
             }
         }
-
-        return ret;
+        logger.info(fingerprintName + " Anchor size: " + count);
     }
 
     private Map<String, String> findMatchedGroup() {
@@ -233,7 +226,7 @@ public class IndexAwareMatch {
             }
         }
 
-        for (Map.Entry<String, String> entry: matches.entrySet()) {
+        for (Map.Entry<String, String> entry: classMatchResult.getMatches().entrySet()) {
             String s = entry.getKey();
             String t = entry.getValue();
             if (s.lastIndexOf('.') != -1 && t.lastIndexOf('.') != -1) {
@@ -245,7 +238,7 @@ public class IndexAwareMatch {
         return ret;
     }
 
-    private List<Map.Entry<List<String>, List<String>>> splitGroupByAnchor(SortedSet<String> sourceClasses, SortedSet<String> targetClasses) {
+    private List<Map.Entry<List<String>, List<String>>> splitGroupByAnchor(List<String> sourceClasses, List<String> targetClasses) {
         Map<Integer, Integer> matchedIndex = getMatchedInGroup(sourceClasses, targetClasses);
         if (matchedIndex.size() > 0) {
             ensureAscending(matchedIndex);
@@ -253,14 +246,12 @@ public class IndexAwareMatch {
 
         List<Map.Entry<List<String>, List<String>>> m = new ArrayList<>();
 
-        List<String> sourceClassesList = new ArrayList<>(sourceClasses);
-        List<String> targetClassesList = new ArrayList<>(targetClasses);
         int lastSourceIndex = -1;
         int lastTargetIndex = -1;
         for (Map.Entry<Integer, Integer> entry: matchedIndex.entrySet()) {
             int sourceIndex = entry.getKey();
             int targetIndex = entry.getValue();
-            m.add(new AbstractMap.SimpleEntry<>(sourceClassesList.subList(lastSourceIndex + 1, sourceIndex), targetClassesList.subList(lastTargetIndex + 1, targetIndex)));
+            m.add(new AbstractMap.SimpleEntry<>(sourceClasses.subList(lastSourceIndex + 1, sourceIndex), targetClasses.subList(lastTargetIndex + 1, targetIndex)));
 //            System.out.println(entry.getKey() + " " + entry.getValue());
             lastSourceIndex = sourceIndex;
             lastTargetIndex = targetIndex;
@@ -269,13 +260,16 @@ public class IndexAwareMatch {
         return m;
     }
 
-    private Map<Integer, Integer> getMatchedInGroup(SortedSet<String> sourceSet, SortedSet<String> targetSet) {
+    private Map<Integer, Integer> getMatchedInGroup(List<String> sourceList, List<String> targetList) {
+        // both lists are sorted, the index of a target is found by binary search
+        Comparator<String> comparator = new ClassMatcher.LengthAlphabeticalComparator();
         Map<Integer, Integer> ret = new TreeMap<>();
-        for (String s: sourceSet) {
-            if (matches.containsKey(s)) {
-                String t = matches.get(s);
-                if (targetSet.contains(t)) {
-                    ret.put(sourceSet.headSet(s).size(), targetSet.headSet(t).size());
+        for (int i = 0; i < sourceList.size(); i++) {
+            String t = classMatchResult.getMatchedTarget(sourceList.get(i));
+            if (t != null) {
+                int j = Collections.binarySearch(targetList, t, comparator);
+                if (j >= 0) {
+                    ret.put(i, j);
                 }
             }
         }
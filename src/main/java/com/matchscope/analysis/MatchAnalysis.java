@@ -41,20 +41,30 @@ public class MatchAnalysis {
         logger.info("Conduct Statistics After Preprocessing.");
         conductStatistics();
 
-        classMatchResult = new ClassMatchResult(sourceClasses.size(), targetClasses.size());
-        logger.info("Class Level Matching.");
+        // the classes and inner classes of both apps get their ids once, the matchers keep their state by id
+        classMatchResult = new ClassMatchResult(sourceClasses.size(), targetClasses.size(),
+                ClassRegistry.of(sourceClasses), ClassRegistry.of(targetClasses));
 
-        ClassMatcher cm = new ClassMatcher(sourceClasses, targetClasses, classMatchResult);
+        // the same pairs are scored by several stages, all of them read through the cache of this analysis
+        SimilarityCache similarityCache = new SimilarityCache(Configs.similarityCacheSize);
+        logger.info("Class Level Matching.");
+        // the package tries of both apps are built once and shared by all class matching stages
+        PackageTrie sourcePackages = new PackageTrie(sourceClasses.keySet());
+        PackageTrie targetPackages = new PackageTrie(targetClasses.keySet());
+        ClassMatcher cm = new ClassMatcher(sourceClasses, targetClasses, classMatchResult, similarityCache,
+                sourcePackages, targetPackages);
         cm.doMatch();
 
         logger.info("Method Level Matching.");
-        MethodMatcher mm = new MethodMatcher(classMatchResult, sourceClasses, targetClasses);
+        MethodMatcher mm = new MethodMatcher(classMatchResult, sourceClasses, targetClasses, similarityCache);
         mm.doMatchUntilNoNewClassFound();
 
         // MethodMatcher may update the match
         // also handle the potential matches
         cm.processUnMatched();
         logger.info("MatchScope Analysis Done.");
+        logger.info("Similarity cache hits: " + similarityCache.getHitNum() + " misses: " + similarityCache.getMissNum()
+                + " evictions: " + similarityCache.getEvictionNum() + " capacity: " + similarityCache.getCapacity());
 
         logger.info(Utils.getDividingLine(40));
         logger.info("Matched Num: " + classMatchResult.getMatchSize() + " " + classMatchResult.getTargetSize());
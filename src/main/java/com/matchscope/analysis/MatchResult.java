@@ -7,40 +7,41 @@ import java.util.*;
 
 public abstract class MatchResult {
     protected final TreeMap<String, String> identical;
+    // target -> source of identical, kept with it so a taken target is found without scanning the values
+    protected final Map<String, String> identicalTargets;
     protected final TreeSet<String> added;
     protected final TreeSet<String> deleted;
     protected final Logger logger = LoggerFactory.getLogger(MatchResult.class);
 
     public MatchResult() {
         this.identical = new TreeMap<>(new ClassMatcher.LengthAlphabeticalComparator());
+        this.identicalTargets = new HashMap<>();
         this.added = new TreeSet<>(new ClassMatcher.LengthAlphabeticalComparator());
         this.deleted = new TreeSet<>(new ClassMatcher.LengthAlphabeticalComparator());
     }
 
     public boolean addIdentical(String source, String target) {
-        return addToMatchMap(identical, source, target);
-    }
-
-    public void updateIdentical(String source, String target) {
-        // ToDo: remove the record if target exists already
-        this.identical.put(source, target);
+        return addToMatchMap(identical, identicalTargets, source, target);
     }
 
 
-    public boolean addToMatchMap(Map<String, String> m, String source, String target) {
-        if (m.containsKey(source)) {
-            if (m.get(source).equals(target)) {
+    // m and its reverse map from target to source are updated together
+    protected boolean addToMatchMap(Map<String, String> m, Map<String, String> reverse, String source, String target) {
+        String matched = m.get(source);
+        if (matched != null) {
+            if (matched.equals(target)) {
                 return true;
             } else {
                 logger.debug("source exist: " + source + " " + target);
                 return false;
             }
         } else {
-            if (m.containsValue(target)) {
+            if (reverse.containsKey(target)) {
                 logger.debug("target exists: " + source + " " + target);
                 return false;
             } else {
                 m.put(source, target);
+                reverse.put(target, source);
                 return true;
             }
         }
@@ -5,34 +5,49 @@ import com.matchscope.profile.MethodProfile;
 public class MethodComparator extends BasicComparator{
     private final MethodProfile s;
     private final MethodProfile t;
+    private final SimilarityCache cache;
 
     public MethodComparator(MethodProfile s, MethodProfile t) {
+        this(s, t, null);
+    }
+
+    public MethodComparator(MethodProfile s, MethodProfile t, SimilarityCache cache) {
         this.s = s;
         this.t = t;
+        this.cache = cache;
     }
 
     public boolean compare() {
-        if (!s.getLevel0Hash().equals(t.getLevel0Hash())) {
+        if (s.getLevel0Hash() != t.getLevel0Hash()) {
             return false;
         }
-        if (!s.getLevel1Hash().equals(t.getLevel1Hash())) {
+        if (s.getLevel1Hash() != t.getLevel1Hash()) {
             return false;
         }
-        if (!s.getLevel2Hash().equals(t.getLevel2Hash())) {
+        if (s.getLevel2Hash() != t.getLevel2Hash()) {
             return false;
         }
         return true;
     }
 
     public boolean compareByLevel0FuzzyHush(double threshold) {
-        return stringSimilar(s.getLevel0FuzzyHash(), t.getLevel0FuzzyHash(), threshold);
+        return FuzzyHashComparator.similar(s.getParsedLevel0FuzzyHash(), t.getParsedLevel0FuzzyHash(), threshold, cache);
     }
 
     public boolean compareByLevel2FuzzyHash(double threshold) {
-        return stringSimilar(s.getLevel2FuzzyHash(), t.getLevel2FuzzyHash(), threshold);
+        return FuzzyHashComparator.similar(s.getParsedLevel2FuzzyHash(), t.getParsedLevel2FuzzyHash(), threshold, cache);
     }
 
     public double getLevel2FuzzyHashSimilarity() {
-        return calculateMethodSimilarityScore(s.getLevel2FuzzyHash(), t.getLevel2FuzzyHash());
+        return FuzzyHashComparator.score(s.getParsedLevel2FuzzyHash(), t.getParsedLevel2FuzzyHash(), 0, cache);
+    }
+
+    // 0 if the methods are below the threshold
+    public double getLevel0FuzzyHashSimilarity(double threshold) {
+        return FuzzyHashComparator.score(s.getParsedLevel0FuzzyHash(), t.getParsedLevel0FuzzyHash(), threshold, cache);
+    }
+
+    public double getLevel2FuzzyHashSimilarity(double threshold) {
+        return FuzzyHashComparator.score(s.getParsedLevel2FuzzyHash(), t.getParsedLevel2FuzzyHash(), threshold, cache);
     }
 }
@@ -9,6 +9,7 @@ public class MethodMatchResult extends MatchResult {
     private final int sourceMethodNum;
     private final int targetMethodNum;
     protected final TreeMap<String, String> similar;
+    protected final Map<String, String> similarTargets;
     protected final Set<String> sourceUnmatched;
     protected final Set<String> targetUnmatched;
 
@@ -19,13 +20,24 @@ public class MethodMatchResult extends MatchResult {
         this.sourceMethodNum = sourceMethodNum;
         this.targetMethodNum = targetMethodNum;
         this.similar = new TreeMap<>(new ClassMatcher.LengthAlphabeticalComparator());
+        this.similarTargets = new HashMap<>();
         this.sourceUnmatched = new HashSet<>();
         this.targetUnmatched = new HashSet<>();
 
     }
 
     public boolean addSimilar(String source, String target) {
-        return addToMatchMap(similar, source, target);
+        return addToMatchMap(similar, similarTargets, source, target);
+    }
+
+    // similar matches of sources that got an identical match later are dropped
+    public void removeIdenticalFromSimilar() {
+        for (String s: identical.keySet()) {
+            String t = similar.remove(s);
+            if (t != null) {
+                similarTargets.remove(t);
+            }
+        }
     }
 
     public TreeMap<String, String> getSimilar() {
@@ -8,6 +8,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 public class MethodMatcher {
@@ -16,29 +18,34 @@ public class MethodMatcher {
     private final Map<String, ClassProfile> target;
     private final Map<String, MethodMatchResult> methodMatchResults;
     private final Map<String, String> potentialMatches;
-    private final Map<String, String> classMatches;
     private final Map<String, String> newClassMatches;
+    private final SimilarityCache similarityCache;
     private final Logger logger = LoggerFactory.getLogger(MethodMatcher.class);
 
-    public MethodMatcher(ClassMatchResult classMatchResult, Map<String, ClassProfile> source, Map<String, ClassProfile> target) {
+    public MethodMatcher(ClassMatchResult classMatchResult, Map<String, ClassProfile> source, Map<String, ClassProfile> target,
+                         SimilarityCache similarityCache) {
         this.classMatchResult = classMatchResult;
-        this.classMatches = classMatchResult.getMatches();
+        this.similarityCache = similarityCache;
         this.source = source;
         this.target = target;
         this.methodMatchResults = new TreeMap<>(new ClassMatcher.LengthAlphabeticalComparator());
         this.potentialMatches = new HashMap<>();
-        this.newClassMatches = new HashMap<>(this.classMatches);
+        this.newClassMatches = new HashMap<>(classMatchResult.getMatches());
 
     }
 
+    // Worklist fixpoint: a round only matches the class pairs whose match changed in the previous round and only
+    // checks the invocation edges found in it. A class changes its match only to a target with a higher score,
+    // so the loop ends.
     public void doMatchUntilNoNewClassFound() {
         int count = 0;
-        do {
+        while (newClassMatches.size() > 0) {
             Map<String, String> toMatch = new HashMap<>(this.newClassMatches);
             this.newClassMatches.clear();
             doMatch(toMatch);
             count++;
-        } while (newClassMatches.size() > 0 && count <= 5);
+        }
+        logger.info("Method match rounds: " + count);
 
         logger.info("Class match size: " + classMatchResult.getMatchSize());
         handleDuplicate();
@@ -48,11 +55,9 @@ public class MethodMatcher {
         // in some cases, the similar set may contain identical matches found later, we do deduplicate here
         for (Map.Entry<String, MethodMatchResult> entry: methodMatchResults.entrySet()) {
             MethodMatchResult mdf = entry.getValue();
-            Map<String, String> similar = mdf.getSimilar();
             Map<String, String> identical = mdf.getIdentical();
-            Set<String> added = mdf.getAdded();
             Set<String> deleted = mdf.getDeleted();
-            similar.keySet().removeAll(identical.keySet());
+            mdf.removeIdenticalFromSimilar();
             deleted.removeAll(identical.keySet());
         }
     }
@@ -64,11 +69,12 @@ public class MethodMatcher {
 
     private void doMatch(Map<String, String> toMatch) {
         logger.info("To Method Match Class Num:" + toMatch.size());
-        int classMatchedCount = 0;
-        int nonMatchedCount = 0;
-        for(Map.Entry<String, String> entry: toMatch.entrySet()) {
-            String s = entry.getKey();
-            String t = entry.getValue();
+        // the pairs are prepared and merged in class order, so the results do not depend on the threads
+        List<String> sourceClasses = new ArrayList<>(toMatch.keySet());
+        sourceClasses.sort(new ClassMatcher.LengthAlphabeticalComparator());
+        List<ClassPairMatch> pairs = new ArrayList<>();
+        for (String s: sourceClasses) {
+            String t = toMatch.get(s);
 //            System.out.println("Processing: " + s + " " + t);
             BasicClassProfile scp = getClassProfile(s, source);
             BasicClassProfile tcp = getClassProfile(t, target);
@@ -76,96 +82,203 @@ public class MethodMatcher {
                 logger.debug("NULL: " + s + " " + t);
                 continue;
             }
+            MethodMatchResult methodMatchResult = methodMatchResults.computeIfAbsent(s, k -> new MethodMatchResult(s, t,
+                    scp.getMethodProfiles().size(), tcp.getMethodProfiles().size()));
+            pairs.add(new ClassPairMatch(scp, tcp, methodMatchResult));
+        }
 
-            List<MethodProfile> sourceProfiles = new ArrayList<>(scp.getMethodProfiles());
-            List<MethodProfile> targetProfiles = new ArrayList<>(tcp.getMethodProfiles());
-
-            int sourceProfilesSize = sourceProfiles.size();
-            int targetProfilesSize = targetProfiles.size();
-
-            MethodMatchResult methodMatchResult = methodMatchResults.computeIfAbsent(s, k -> new MethodMatchResult(s, t, sourceProfilesSize, targetProfilesSize));
-            Map<String, String> matched = new TreeMap<>();
-
-            // find exact match
-            ListIterator<MethodProfile> sourceIterator = sourceProfiles.listIterator();
-//            System.out.println(sourceProfiles + " " + targetProfiles);
-            while (sourceIterator.hasNext()) {
-                MethodProfile sourceProfile = sourceIterator.next();
-                ListIterator<MethodProfile> targetIterator = targetProfiles.listIterator();
-                while (targetIterator.hasNext()) {
-                    MethodProfile targetProfile = targetIterator.next();
-//                    System.out.println(sourceProfile.getName() + " " + targetProfile.getName());
-                    if (compareMethods(sourceProfile, targetProfile)) {
-                        addToIdentical(sourceProfile, targetProfile, methodMatchResult);
-                        sourceIterator.remove();
-                        targetIterator.remove();
-                        matched.put(sourceProfile.getName(), targetProfile.getName());
-                        break;
-                    }
+        matchClassPairs(pairs);
+
+        int classMatchedCount = 0;
+        int nonMatchedCount = 0;
+        // edges seen in an earlier round give the same result again, only new or changed edges are checked
+        List<Map.Entry<String, String>> newPotential = new ArrayList<>();
+        for (ClassPairMatch pair: pairs) {
+            for (Map.Entry<String, String> edge: pair.potential.entrySet()) {
+                String previous = potentialMatches.put(edge.getKey(), edge.getValue());
+                if (!edge.getValue().equals(previous)) {
+                    newPotential.add(edge);
                 }
             }
+            if (pair.allMatched) {
+                classMatchedCount += 1;
+            } else if (pair.matched.size() == 0) {
+                nonMatchedCount++;
+            }
+        }
+        logger.info("All Methods Matched Class Num: " + classMatchedCount);
+        logger.info("Non Methods Matched Class Num: " + nonMatchedCount);
+        logger.info("New Potential Method Match Num: " + newPotential.size());
 
-            // now handle the remaining methods
-            sourceIterator = sourceProfiles.listIterator();
-            while (sourceIterator.hasNext()) {
-                MethodProfile sourceProfile = sourceIterator.next();
-                ListIterator<MethodProfile> targetIterator = targetProfiles.listIterator();
-                while (targetIterator.hasNext()) {
-                    MethodProfile targetProfile = targetIterator.next();
-                    double level2Similarity = getMethodsLevel2FuzzyHashSimilarity(sourceProfile, targetProfile);
-                    if (level2Similarity >= Configs.methodLevel2FuzzyHashSimilarityThreshold) {
-                        addToSimilar(sourceProfile, targetProfile, methodMatchResult);
-                        sourceIterator.remove();
-                        targetIterator.remove();
-                        matched.put(sourceProfile.getName(), targetProfile.getName());
-                        break;
-                    } else if (compareMethodsByLevel0FuzzyHash(sourceProfile, targetProfile)) {
-                        addToSimilar(sourceProfile, targetProfile, methodMatchResult);
-                        sourceIterator.remove();
-                        targetIterator.remove();
-                        matched.put(sourceProfile.getName(), targetProfile.getName());
-                        break;
-                    }
-                }
+        handlePotential(newPotential);
+    }
+
+    // Class pairs only write to their own MethodMatchResult and buffers, so they are matched concurrently when
+    // more than one thread is configured. The heaviest pairs are submitted first so the large classes do not
+    // finish last.
+    private void matchClassPairs(List<ClassPairMatch> pairs) {
+        int threadNum = Configs.matchThreadNum;
+        if (threadNum <= 1 || pairs.size() <= 1) {
+            pairs.forEach(this::matchMethods);
+            return;
+        }
+        List<ClassPairMatch> byWeight = new ArrayList<>(pairs);
+        byWeight.sort(Comparator.comparingInt(ClassPairMatch::getWeight).reversed());
+        ForkJoinPool pool = new ForkJoinPool(threadNum);
+        try {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (ClassPairMatch pair: byWeight) {
+                tasks.add(pool.submit(() -> matchMethods(pair)));
+            }
+            for (ForkJoinTask<?> task: tasks) {
+                task.join();
             }
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            if (sourceProfiles.size() == 0 && targetProfiles.size() != 0) {
-//                System.out.println(s + " " + t + " " + targetProfiles.size());
-                for (MethodProfile mp: targetProfiles) {
-                    addToAdded(mp, methodMatchResult);
-                }
+    private void matchMethods(ClassPairMatch pair) {
+        List<MethodProfile> sourceProfiles = new ArrayList<>(pair.scp.getMethodProfiles());
+        List<MethodProfile> targetProfiles = new ArrayList<>(pair.tcp.getMethodProfiles());
+        MethodMatchResult methodMatchResult = pair.result;
+
+        // find exact match
+        matchIdenticalMethods(sourceProfiles, targetProfiles, pair);
+
+        // now handle the remaining methods, methods with the same descriptor and a similar size first
+        matchSimilarMethods(sourceProfiles, targetProfiles, true, pair);
+        matchSimilarMethods(sourceProfiles, targetProfiles, false, pair);
+
+        if (sourceProfiles.size() == 0 && targetProfiles.size() != 0) {
+//            System.out.println(s + " " + t + " " + targetProfiles.size());
+            for (MethodProfile mp: targetProfiles) {
+                addToAdded(mp, methodMatchResult);
             }
+        }
 
-            if (sourceProfiles.size() != 0 && targetProfiles.size() == 0) {
-                for (MethodProfile mp: sourceProfiles) {
-                    addToDeleted(mp, methodMatchResult);
-                }
+        if (sourceProfiles.size() != 0 && targetProfiles.size() == 0) {
+            for (MethodProfile mp: sourceProfiles) {
+                addToDeleted(mp, methodMatchResult);
+            }
+        }
+
+        if (sourceProfiles.size() != 0 && targetProfiles.size() != 0) {
+//            System.out.println(s + " " + t + " " + sourceProfiles.size() + " " + targetProfiles.size());
+
+            for (MethodProfile mp: sourceProfiles) {
+                methodMatchResult.addSourceUnmatched(getMethodName(mp));
+            }
+            for (MethodProfile mp: targetProfiles) {
+                methodMatchResult.addTargetUnmatched(getMethodName(mp));
+            }
+        }
+
+        if (sourceProfiles.size() == targetProfiles.size() && sourceProfiles.size() == 0) {
+            pair.allMatched = true;
+        } else if (pair.matched.size() == 0) {
+            logger.debug(pair.scp.getName() + " " + pair.scp.getMethodProfiles().size() + " "
+                    + pair.tcp.getName() + " " + pair.tcp.getMethodProfiles().size() + " ");
+        }
+    }
+
+    // Identical methods have the same three hashes. The targets are bucketed by the hashes in their order, every
+    // source takes the first remaining target of its bucket, same as the first identical target in a scan.
+    private void matchIdenticalMethods(List<MethodProfile> sourceProfiles, List<MethodProfile> targetProfiles, ClassPairMatch pair) {
+        Map<List<Long>, ArrayDeque<MethodProfile>> targetBuckets = new HashMap<>();
+        for (MethodProfile targetProfile: targetProfiles) {
+            targetBuckets.computeIfAbsent(getHashKey(targetProfile), k -> new ArrayDeque<>()).add(targetProfile);
+        }
+        Set<MethodProfile> matchedTargets = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<MethodProfile> sourceRemaining = new ArrayList<>();
+        for (MethodProfile sourceProfile: sourceProfiles) {
+            ArrayDeque<MethodProfile> bucket = targetBuckets.get(getHashKey(sourceProfile));
+            MethodProfile targetProfile = bucket == null ? null : bucket.poll();
+            if (targetProfile == null) {
+                sourceRemaining.add(sourceProfile);
+                continue;
             }
+            addToIdentical(sourceProfile, targetProfile, pair);
+            matchedTargets.add(targetProfile);
+            pair.matched.put(sourceProfile.getName(), targetProfile.getName());
+        }
+        sourceProfiles.clear();
+        sourceProfiles.addAll(sourceRemaining);
+        targetProfiles.removeIf(matchedTargets::contains);
+    }
 
-            if (sourceProfiles.size() != 0 && targetProfiles.size() != 0) {
-//                System.out.println(s + " " + t + " " + sourceProfiles.size() + " " + targetProfiles.size());
+    private static List<Long> getHashKey(MethodProfile mp) {
+        return Arrays.asList(mp.getLevel0Hash(), mp.getLevel1Hash(), mp.getLevel2Hash());
+    }
 
-                for (MethodProfile mp: sourceProfiles) {
-                    methodMatchResult.addSourceUnmatched(getMethodName(mp));
+    // Matches similar methods one-to-one with the highest total similarity, the matched methods are removed from
+    // both lists. With sameDescriptor only methods with the same fuzzy descriptor and a statement number in the
+    // same or a neighbouring power of two band are paired, their level 0 fuzzy hashes are equal and need no
+    // comparison. Otherwise the pairs are the candidates of the level 0 and level 2 fuzzy hash indexes.
+    private void matchSimilarMethods(List<MethodProfile> sourceProfiles, List<MethodProfile> targetProfiles, boolean sameDescriptor,
+                                     ClassPairMatch pair) {
+        if (sourceProfiles.isEmpty() || targetProfiles.isEmpty()) {
+            return;
+        }
+        SparseAssignment assignment = new SparseAssignment(sourceProfiles.size(), targetProfiles.size());
+        if (sameDescriptor) {
+            Map<String, Map<Integer, List<Integer>>> targetBuckets = new HashMap<>();
+            for (int j = 0; j < targetProfiles.size(); j++) {
+                MethodProfile targetProfile = targetProfiles.get(j);
+                targetBuckets.computeIfAbsent(targetProfile.getFuzzyDescriptor(), k -> new HashMap<>())
+                        .computeIfAbsent(getStatementBand(targetProfile), k -> new ArrayList<>()).add(j);
+            }
+            for (int i = 0; i < sourceProfiles.size(); i++) {
+                MethodProfile sourceProfile = sourceProfiles.get(i);
+                Map<Integer, List<Integer>> bands = targetBuckets.get(sourceProfile.getFuzzyDescriptor());
+                if (bands == null) {
+                    continue;
                 }
-                for (MethodProfile mp: targetProfiles) {
-                    methodMatchResult.addTargetUnmatched(getMethodName(mp));
+                int band = getStatementBand(sourceProfile);
+                for (int b = band - 1; b <= band + 1; b++) {
+                    for (int j: bands.getOrDefault(b, Collections.emptyList())) {
+                        assignment.addEdge(i, j, getMethodsSimilarity(sourceProfile, targetProfiles.get(j), true));
+                    }
                 }
             }
-
-            if (sourceProfiles.size() == targetProfiles.size() && sourceProfiles.size() == 0) {
-                classMatchedCount += 1;
-            } else {
-                if (matched.size() == 0) {
-                    nonMatchedCount++;
-                    logger.debug(s + " " + sourceProfilesSize + " " + t + " " + targetProfilesSize + " ");
+        } else {
+            FuzzyHashIndex<Integer> level0Index = new FuzzyHashIndex<>(similarityCache);
+            FuzzyHashIndex<Integer> level2Index = new FuzzyHashIndex<>(similarityCache);
+            for (int j = 0; j < targetProfiles.size(); j++) {
+                level0Index.add(j, targetProfiles.get(j).getParsedLevel0FuzzyHash());
+                level2Index.add(j, targetProfiles.get(j).getParsedLevel2FuzzyHash());
+            }
+            for (int i = 0; i < sourceProfiles.size(); i++) {
+                MethodProfile sourceProfile = sourceProfiles.get(i);
+                Set<Integer> candidates = new TreeSet<>(level0Index.getCandidates(sourceProfile.getParsedLevel0FuzzyHash()));
+                candidates.addAll(level2Index.getCandidates(sourceProfile.getParsedLevel2FuzzyHash()));
+                for (int j: candidates) {
+                    assignment.addEdge(i, j, getMethodsSimilarity(sourceProfile, targetProfiles.get(j), false));
                 }
             }
         }
-        logger.info("All Methods Matched Class Num: " + classMatchedCount);
-        logger.info("Non Methods Matched Class Num: " + nonMatchedCount);
 
-        handlePotential();
+        int[] assigned = assignment.solve();
+        Set<MethodProfile> matchedTargets = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<MethodProfile> sourceRemaining = new ArrayList<>();
+        for (int i = 0; i < assigned.length; i++) {
+            MethodProfile sourceProfile = sourceProfiles.get(i);
+            if (assigned[i] < 0) {
+                sourceRemaining.add(sourceProfile);
+                continue;
+            }
+            MethodProfile targetProfile = targetProfiles.get(assigned[i]);
+            addToSimilar(sourceProfile, targetProfile, pair);
+            matchedTargets.add(targetProfile);
+            pair.matched.put(sourceProfile.getName(), targetProfile.getName());
+        }
+        sourceProfiles.clear();
+        sourceProfiles.addAll(sourceRemaining);
+        targetProfiles.removeIf(matchedTargets::contains);
+    }
+
+    private static int getStatementBand(MethodProfile mp) {
+        return 32 - Integer.numberOfLeadingZeros(mp.getStatementNum());
     }
 
     private void addToIdentical(String s, String t, String sourceClassName, String targetClassName) {
@@ -185,21 +298,21 @@ public class MethodMatcher {
 
     }
 
-    private void addToIdentical(MethodProfile sourceMethod, MethodProfile targetMethod, MethodMatchResult methodMatchResult) {
+    private void addToIdentical(MethodProfile sourceMethod, MethodProfile targetMethod, ClassPairMatch pair) {
         String s = getMethodName(sourceMethod);
         String t = getMethodName(targetMethod);
 
-        if (methodMatchResult.addIdentical(s, t)) {
-            addInvokedMethodsToPotential(sourceMethod, targetMethod);
+        if (pair.result.addIdentical(s, t)) {
+            addInvokedMethodsToPotential(sourceMethod, targetMethod, pair.potential);
         }
     }
 
-    private void addToSimilar(MethodProfile sourceMethod, MethodProfile targetMethod, MethodMatchResult methodMatchResult) {
+    private void addToSimilar(MethodProfile sourceMethod, MethodProfile targetMethod, ClassPairMatch pair) {
         String s = getMethodName(sourceMethod);
         String t = getMethodName(targetMethod);
 
-        if (methodMatchResult.addSimilar(s, t)) {
-            addInvokedMethodsToPotential(sourceMethod, targetMethod);
+        if (pair.result.addSimilar(s, t)) {
+            addInvokedMethodsToPotential(sourceMethod, targetMethod, pair.potential);
         }
     }
 
@@ -211,7 +324,7 @@ public class MethodMatcher {
         methodMatchResult.addAdded(getMethodName(m));
     }
 
-    private void addInvokedMethodsToPotential(MethodProfile sourceMethod, MethodProfile targetMethod) {
+    private void addInvokedMethodsToPotential(MethodProfile sourceMethod, MethodProfile targetMethod, Map<String, String> potentialMatches) {
         List<String> sourceInvokedMethods = sourceMethod.getInvokedNonSystemMethod();
         if (sourceInvokedMethods.size() > 0) {
             List<String> targetInvokedMethods = targetMethod.getInvokedNonSystemMethod();
@@ -228,8 +341,8 @@ public class MethodMatcher {
         }
     }
 
-    private void handlePotential() {
-        for (Map.Entry<String, String> entry: potentialMatches.entrySet()) {
+    private void handlePotential(List<Map.Entry<String, String>> edges) {
+        for (Map.Entry<String, String> entry: edges) {
             String sourceSignature = entry.getKey();
             String targetSignature = entry.getValue();
 
@@ -244,11 +357,11 @@ public class MethodMatcher {
                 continue;
             }
 
-            if (classMatches.containsKey(sourceClassName)) {
-                String value = classMatches.get(sourceClassName);
+            String value = classMatchResult.getMatchedTarget(sourceClassName);
+            if (value != null) {
                 if (!value.equals(targetClassName)) {
-                    if (BasicComparator.calculateMethodSimilarityScore(source.get(sourceClassName).getLevel0FuzzyHash(), target.get(value).getLevel0FuzzyHash()) <
-                    BasicComparator.calculateMethodSimilarityScore(source.get(sourceClassName).getLevel0FuzzyHash(), target.get(targetClassName).getLevel0FuzzyHash())) {
+                    if (FuzzyHashComparator.score(source.get(sourceClassName).getParsedLevel0FuzzyHash(), target.get(value).getParsedLevel0FuzzyHash(), 0, similarityCache) <
+                    FuzzyHashComparator.score(source.get(sourceClassName).getParsedLevel0FuzzyHash(), target.get(targetClassName).getParsedLevel0FuzzyHash(), 0, similarityCache)) {
                         logger.debug("Different Match Found: " + sourceClassName + " " + targetClassName + " vs " + value);
                         classMatchResult.updateIdentical(sourceClassName, targetClassName);
                         methodMatchResults.remove(sourceClassName);
@@ -258,7 +371,7 @@ public class MethodMatcher {
                     }
                 }
             } else {
-                if (ClassComparator.compareByLevel0FuzzyHash(source.get(sourceClassName), target.get(targetClassName), Configs.classLevel0FuzzyHashSimilarityThreshold)) {
+                if (ClassComparator.compareByLevel0FuzzyHash(source.get(sourceClassName), target.get(targetClassName), Configs.classLevel0FuzzyHashSimilarityThreshold, similarityCache)) {
                     logger.debug("New Match Found: " + sourceClassName + " " + targetClassName);
                     classMatchResult.updateIdentical(sourceClassName, targetClassName);
                     methodMatchResults.remove(sourceClassName);
@@ -281,30 +394,41 @@ public class MethodMatcher {
     }
 
     private String getMethodName(MethodProfile m) {
-        return m.getSootMethod().getSubSignature();
+        return m.getSubSignature();
 //        return m.getSootMethod().getDeclaringClass() + "." + m.getSootMethod().getSignature();
     }
 
     private boolean compareMethods(MethodProfile s, MethodProfile t) {
-        MethodComparator mc = new MethodComparator(s, t);
+        MethodComparator mc = new MethodComparator(s, t, similarityCache);
         return mc.compare();
     }
 
     private boolean compareMethodsByLevel0FuzzyHash(MethodProfile s, MethodProfile t) {
-        MethodComparator mc = new MethodComparator(s, t);
+        MethodComparator mc = new MethodComparator(s, t, similarityCache);
         return mc.compareByLevel0FuzzyHush(Configs.methodLevel0FuzzyHashSimilarityThreshold);
     }
 
     private boolean compareMethodsByLevel2FuzzyHash(MethodProfile s, MethodProfile t) {
-        MethodComparator mc = new MethodComparator(s, t);
+        MethodComparator mc = new MethodComparator(s, t, similarityCache);
         return mc.compareByLevel2FuzzyHash(Configs.methodLevel2FuzzyHashSimilarityThreshold);
     }
 
     private double getMethodsLevel2FuzzyHashSimilarity(MethodProfile s, MethodProfile t) {
-        MethodComparator mc = new MethodComparator(s, t);
+        MethodComparator mc = new MethodComparator(s, t, similarityCache);
         return mc.getLevel2FuzzyHashSimilarity();
     }
 
+    // Methods with similar instructions (level 2) score 1 + their level 2 score, above the methods only similar
+    // by their descriptor (level 0) which score their level 0 score. 0 if neither reaches its threshold.
+    private double getMethodsSimilarity(MethodProfile s, MethodProfile t, boolean sameDescriptor) {
+        MethodComparator mc = new MethodComparator(s, t, similarityCache);
+        double level2Similarity = mc.getLevel2FuzzyHashSimilarity(Configs.methodLevel2FuzzyHashSimilarityThreshold);
+        if (level2Similarity > 0) {
+            return 1 + level2Similarity;
+        }
+        return sameDescriptor ? 1 : mc.getLevel0FuzzyHashSimilarity(Configs.methodLevel0FuzzyHashSimilarityThreshold);
+    }
+
     private BasicClassProfile getClassProfile(String className, Map<String, ClassProfile> classProfileMap) {
         if (className.contains("$")) {
             ClassProfile enclosingClass = classProfileMap.get(Utils.getEnclosingClass(className));
@@ -318,6 +442,26 @@ public class MethodMatcher {
         }
     }
 
+    // one matched class pair, with the potential matches of its invoked methods buffered until the round is merged
+    private static class ClassPairMatch {
+        private final BasicClassProfile scp;
+        private final BasicClassProfile tcp;
+        private final MethodMatchResult result;
+        private final Map<String, String> matched = new TreeMap<>();
+        private final Map<String, String> potential = new LinkedHashMap<>();
+        private boolean allMatched = false;
+
+        ClassPairMatch(BasicClassProfile scp, BasicClassProfile tcp, MethodMatchResult result) {
+            this.scp = scp;
+            this.tcp = tcp;
+            this.result = result;
+        }
+
+        int getWeight() {
+            return scp.getWeight() + tcp.getWeight();
+        }
+    }
+
     public Map<String, MethodMatchResult> getMethodMatchResults() {
         return methodMatchResults;
     }
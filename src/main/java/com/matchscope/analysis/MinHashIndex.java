@@ -0,0 +1,92 @@
+package com.matchscope.analysis;
+
+import com.matchscope.Utils;
+import com.matchscope.profile.MinHash;
+
+import java.util.*;
+
+// LSH banding index over MinHash sketches. A sketch is cut into bands of rows = size / bands positions and
+// every band is hashed into a bucket, items sharing a bucket with the query in any band are its candidates.
+// A pair with Jaccard similarity j becomes a candidate with probability 1 - (1 - j^rows)^bands, so only the
+// items likely to be similar are looked at and the candidates are ranked by their estimated Jaccard similarity.
+public class MinHashIndex<T> {
+    private final int bands;
+    private final int rows;
+    private final List<T> items = new ArrayList<>();
+    private final List<long[]> sketches = new ArrayList<>();
+    private final Map<Long, List<Integer>> buckets = new HashMap<>();
+
+    public MinHashIndex() {
+        this(Configs.minHashSketchSize, Configs.minHashBandNum);
+    }
+
+    public MinHashIndex(int sketchSize, int bands) {
+        if (bands <= 0 || bands > sketchSize) {
+            throw new IllegalArgumentException("Invalid LSH bands: " + bands + " for sketch size " + sketchSize);
+        }
+        this.bands = bands;
+        this.rows = sketchSize / bands;
+    }
+
+    // sketches of empty feature sets are not indexed, they are similar to nothing
+    public void add(T item, long[] sketch) {
+        if (MinHash.isEmpty(sketch)) {
+            return;
+        }
+        int id = items.size();
+        items.add(item);
+        sketches.add(sketch);
+        for (int band = 0; band < bands; band++) {
+            buckets.computeIfAbsent(getBandKey(sketch, band), k -> new ArrayList<>()).add(id);
+        }
+    }
+
+    // at most limit candidates, the highest estimated Jaccard similarity first, ties in the order they were added
+    public List<T> getCandidates(long[] sketch, int limit) {
+        return getSimilar(sketch, 0, limit);
+    }
+
+    // at most limit items with an estimated Jaccard similarity of at least threshold, the highest first
+    public List<T> getSimilar(long[] sketch, double threshold, int limit) {
+        List<T> ret = new ArrayList<>();
+        if (MinHash.isEmpty(sketch)) {
+            return ret;
+        }
+        BitSet candidates = new BitSet(items.size());
+        for (int band = 0; band < bands; band++) {
+            List<Integer> ids = buckets.get(getBandKey(sketch, band));
+            if (ids != null) {
+                for (int id: ids) {
+                    candidates.set(id);
+                }
+            }
+        }
+        List<Integer> ids = new ArrayList<>(candidates.cardinality());
+        Map<Integer, Double> estimates = new HashMap<>();
+        for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+            double estimate = MinHash.estimateJaccard(sketch, sketches.get(id));
+            if (estimate >= threshold) {
+                ids.add(id);
+                estimates.put(id, estimate);
+            }
+        }
+        // the sort is stable, ids are ascending
+        ids.sort((i1, i2) -> Double.compare(estimates.get(i2), estimates.get(i1)));
+        for (int i = 0; i < ids.size() && i < limit; i++) {
+            ret.add(items.get(ids.get(i)));
+        }
+        return ret;
+    }
+
+    private long getBandKey(long[] sketch, int band) {
+        long key = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++) {
+            key = Utils.mixHash(key, sketch[i]);
+        }
+        return key;
+    }
+
+    public int size() {
+        return items.size();
+    }
+}
@@ -0,0 +1,83 @@
+package com.matchscope.analysis;
+
+import java.util.*;
+
+// Trie of the packages of the classes of one app, built once per analysis. Every node holds the classes directly
+// in its package and the classes of its whole subtree, both sorted by LengthAlphabeticalComparator when the trie
+// is built. The nodes are also indexed by their package prefix as used for the groups ("a.b." for package a.b,
+// "" for no package), so the classes of a package or of a package and its subpackages are found with one lookup,
+// without filtering or sorting.
+public class PackageTrie {
+    private final Node root = new Node();
+    private final Map<String, Node> nodes = new HashMap<>();
+
+    public PackageTrie(Collection<String> classNames) {
+        nodes.put("", root);
+        for (String className: classNames) {
+            getOrCreateNode(getPackagePrefix(className)).classes.add(className);
+        }
+        Comparator<String> comparator = new ClassMatcher.LengthAlphabeticalComparator();
+        for (Node node: nodes.values()) {
+            node.classes.sort(comparator);
+            node.sortedClasses = Collections.unmodifiableList(node.classes);
+        }
+        buildSubtree(root, comparator);
+    }
+
+    // the subtree lists are built bottom up, the depth of the recursion is the depth of the packages
+    private static void buildSubtree(Node node, Comparator<String> comparator) {
+        if (node.children.isEmpty()) {
+            node.subtreeClasses = node.sortedClasses;
+            return;
+        }
+        List<String> subtree = new ArrayList<>(node.classes);
+        for (Node child: node.children) {
+            buildSubtree(child, comparator);
+            subtree.addAll(child.subtreeClasses);
+        }
+        subtree.sort(comparator);
+        node.subtreeClasses = Collections.unmodifiableList(subtree);
+    }
+
+    private Node getOrCreateNode(String prefix) {
+        Node node = nodes.get(prefix);
+        if (node != null) {
+            return node;
+        }
+        // the parent of "a.b." is "a."
+        int end = prefix.lastIndexOf('.', prefix.length() - 2);
+        Node parent = getOrCreateNode(prefix.substring(0, end + 1));
+        node = new Node();
+        parent.children.add(node);
+        nodes.put(prefix, node);
+        return node;
+    }
+
+    // "a.b." for a.b.C, "" for a class with no package
+    public static String getPackagePrefix(String className) {
+        return className.substring(0, className.lastIndexOf('.') + 1);
+    }
+
+    // the classes directly in the package, not in its subpackages, sorted
+    public List<String> getClassesInPackage(String prefix) {
+        Node node = nodes.get(prefix);
+        return node == null ? Collections.emptyList() : node.sortedClasses;
+    }
+
+    public List<String> getClassesWithNoPackage() {
+        return root.sortedClasses;
+    }
+
+    // the classes in the package and all its subpackages, sorted
+    public List<String> getClassesByPrefix(String prefix) {
+        Node node = nodes.get(prefix);
+        return node == null ? Collections.emptyList() : node.subtreeClasses;
+    }
+
+    private static class Node {
+        private final List<Node> children = new ArrayList<>();
+        private final List<String> classes = new ArrayList<>();
+        private List<String> sortedClasses = Collections.emptyList();
+        private List<String> subtreeClasses = Collections.emptyList();
+    }
+}
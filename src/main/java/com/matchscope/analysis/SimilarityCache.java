@@ -0,0 +1,89 @@
+package com.matchscope.analysis;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded cache of fuzzy hash scores keyed by the ids of the two hashes, shared by all matcher stages of one
+// analysis. It is direct mapped: every pair has one slot and a new pair evicts the pair stored there.
+// The slots are guarded by a fixed number of striped locks.
+// Scores at or above the threshold they were computed with are exact, a score of 0 only means the pair is
+// below that threshold, so it is returned for queries with the same or a higher threshold only.
+public class SimilarityCache {
+    private static final int STRIPES = 64;
+    private static final long EMPTY = -1;
+    private final int mask;
+    private final long[] keys;
+    private final double[] scores;
+    private final double[] thresholds;
+    private final Object[] locks = new Object[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SimilarityCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, STRIPES));
+        this.mask = size - 1;
+        this.keys = new long[size];
+        this.scores = new double[size];
+        this.thresholds = new double[size];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // the cached score of the pair for the threshold, NaN if there is none
+    public double get(int id1, int id2, double threshold) {
+        long key = getKey(id1, id2);
+        int slot = getSlot(key);
+        synchronized (locks[slot & (STRIPES - 1)]) {
+            if (keys[slot] == key && (scores[slot] > 0 || threshold >= thresholds[slot])) {
+                hits.increment();
+                return scores[slot];
+            }
+        }
+        misses.increment();
+        return Double.NaN;
+    }
+
+    public void put(int id1, int id2, double threshold, double score) {
+        long key = getKey(id1, id2);
+        int slot = getSlot(key);
+        synchronized (locks[slot & (STRIPES - 1)]) {
+            if (keys[slot] != EMPTY && keys[slot] != key) {
+                evictions.increment();
+            }
+            keys[slot] = key;
+            scores[slot] = score;
+            thresholds[slot] = threshold;
+        }
+    }
+
+    // scores are symmetric, so the pair is keyed in id order
+    private static long getKey(int id1, int id2) {
+        int lo = Math.min(id1, id2);
+        int hi = Math.max(id1, id2);
+        return (long) lo << 32 | (hi & 0xffffffffL);
+    }
+
+    private int getSlot(long key) {
+        key *= 0x9e3779b97f4a7c15L;
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    public long getHitNum() {
+        return hits.sum();
+    }
+
+    public long getMissNum() {
+        return misses.sum();
+    }
+
+    public long getEvictionNum() {
+        return evictions.sum();
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,249 @@
+package com.matchscope.analysis;
+
+import java.util.Arrays;
+
+// Maximum-weight one-to-one matching of sources to targets on a sparse graph of scored candidate edges.
+// Weights are scaled to integers and turned into costs max - weight. Every source also gets a dummy target of
+// its own with the cost of weight 0, which makes the problem a min-cost assignment where a source left on its
+// dummy is unmatched. Sources are assigned one after another along shortest augmenting paths, found with
+// Dijkstra on the reduced costs kept non-negative by the target potentials (the augmentation step of
+// Jonker-Volgenant). Only the edges are stored, the work per augmentation is bounded by the explored part of
+// the graph and no dense cost matrix is built.
+public class SparseAssignment {
+    private static final double SCALE = 1_000_000;
+    private final int sourceNum;
+    private final int targetNum;
+    private int edgeNum = 0;
+    private int[] edgeSources = new int[16];
+    private int[] edgeTargets = new int[16];
+    private long[] edgeWeights = new long[16];
+
+    public SparseAssignment(int sourceNum, int targetNum) {
+        this.sourceNum = sourceNum;
+        this.targetNum = targetNum;
+    }
+
+    // edges of weight 0 or less are never better than leaving the source unmatched, they are dropped
+    public void addEdge(int source, int target, double weight) {
+        if (source < 0 || source >= sourceNum || target < 0 || target >= targetNum) {
+            throw new IndexOutOfBoundsException("Edge " + source + " -> " + target);
+        }
+        long w = Math.round(weight * SCALE);
+        if (w <= 0) {
+            return;
+        }
+        if (edgeNum == edgeSources.length) {
+            edgeSources = Arrays.copyOf(edgeSources, edgeNum * 2);
+            edgeTargets = Arrays.copyOf(edgeTargets, edgeNum * 2);
+            edgeWeights = Arrays.copyOf(edgeWeights, edgeNum * 2);
+        }
+        edgeSources[edgeNum] = source;
+        edgeTargets[edgeNum] = target;
+        edgeWeights[edgeNum] = w;
+        edgeNum++;
+    }
+
+    // the target assigned to every source, -1 for unmatched sources
+    public int[] solve() {
+        int[] assignment = new int[sourceNum];
+        Arrays.fill(assignment, -1);
+        if (edgeNum == 0) {
+            return assignment;
+        }
+
+        // edges grouped by source in the order they were added (CSR)
+        int[] offsets = new int[sourceNum + 1];
+        for (int e = 0; e < edgeNum; e++) {
+            offsets[edgeSources[e] + 1]++;
+        }
+        for (int i = 0; i < sourceNum; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] fill = Arrays.copyOf(offsets, sourceNum);
+        int[] columns = new int[edgeNum];
+        long[] costs = new long[edgeNum];
+        long maxWeight = 0;
+        for (int e = 0; e < edgeNum; e++) {
+            maxWeight = Math.max(maxWeight, edgeWeights[e]);
+        }
+        for (int e = 0; e < edgeNum; e++) {
+            int pos = fill[edgeSources[e]]++;
+            columns[pos] = edgeTargets[e];
+            costs[pos] = maxWeight - edgeWeights[e];
+        }
+
+        // columns are the targets followed by one dummy per source
+        int columnNum = targetNum + sourceNum;
+        long[] potentials = new long[columnNum];
+        int[] columnOwner = new int[columnNum];
+        Arrays.fill(columnOwner, -1);
+        int[] rowColumn = new int[sourceNum];
+        Arrays.fill(rowColumn, -1);
+
+        long[] dist = new long[columnNum];
+        int[] pred = new int[columnNum];
+        // a column is reached or finalized in the current search if its stamp is the search number
+        int[] reached = new int[columnNum];
+        int[] finalized = new int[columnNum];
+        int[] scanned = new int[columnNum];
+        Heap heap = new Heap();
+
+        for (int row = 0; row < sourceNum; row++) {
+            if (offsets[row] == offsets[row + 1]) {
+                continue;
+            }
+            int stamp = row + 1;
+            int scannedNum = 0;
+            heap.clear();
+            relax(row, 0, offsets, columns, costs, maxWeight, potentials, dist, pred, reached, stamp, heap);
+
+            int end = -1;
+            long min = 0;
+            while (!heap.isEmpty()) {
+                int col = heap.peekColumn();
+                long d = heap.peekDist();
+                heap.pop();
+                if (finalized[col] == stamp || d != dist[col]) {
+                    continue;
+                }
+                finalized[col] = stamp;
+                if (columnOwner[col] < 0) {
+                    end = col;
+                    min = d;
+                    break;
+                }
+                scanned[scannedNum++] = col;
+                // continue from the row owning the column, its reduced cost to the column is 0
+                int owner = columnOwner[col];
+                long u = getCost(owner, rowColumn[owner], offsets, columns, costs, maxWeight) - potentials[col];
+                relax(owner, d - u, offsets, columns, costs, maxWeight, potentials, dist, pred, reached, stamp, heap);
+            }
+
+            for (int k = 0; k < scannedNum; k++) {
+                int col = scanned[k];
+                potentials[col] += dist[col] - min;
+            }
+            // augment along the path
+            int col = end;
+            while (true) {
+                int r = pred[col];
+                int next = rowColumn[r];
+                columnOwner[col] = r;
+                rowColumn[r] = col;
+                if (r == row) {
+                    break;
+                }
+                col = next;
+            }
+        }
+
+        for (int row = 0; row < sourceNum; row++) {
+            if (rowColumn[row] >= 0 && rowColumn[row] < targetNum) {
+                assignment[row] = rowColumn[row];
+            }
+        }
+        return assignment;
+    }
+
+    private void relax(int row, long offset, int[] offsets, int[] columns, long[] costs, long maxWeight,
+                       long[] potentials, long[] dist, int[] pred, int[] reached, int stamp, Heap heap) {
+        for (int e = offsets[row]; e < offsets[row + 1]; e++) {
+            update(columns[e], offset + costs[e] - potentials[columns[e]], row, dist, pred, reached, stamp, heap);
+        }
+        int dummy = targetNum + row;
+        update(dummy, offset + maxWeight - potentials[dummy], row, dist, pred, reached, stamp, heap);
+    }
+
+    private static void update(int col, long d, int row, long[] dist, int[] pred, int[] reached, int stamp, Heap heap) {
+        if (reached[col] != stamp || d < dist[col]) {
+            reached[col] = stamp;
+            dist[col] = d;
+            pred[col] = row;
+            heap.push(d, col);
+        }
+    }
+
+    private long getCost(int row, int col, int[] offsets, int[] columns, long[] costs, long maxWeight) {
+        if (col >= targetNum) {
+            return maxWeight;
+        }
+        long ret = Long.MAX_VALUE;
+        for (int e = offsets[row]; e < offsets[row + 1]; e++) {
+            if (columns[e] == col) {
+                ret = Math.min(ret, costs[e]);
+            }
+        }
+        return ret;
+    }
+
+    // binary min-heap of (distance, column), ties broken by column so the result is deterministic.
+    // Entries are not decreased in place, outdated ones are skipped when popped.
+    private static class Heap {
+        private long[] dists = new long[64];
+        private int[] cols = new int[64];
+        private int size = 0;
+
+        void clear() {
+            size = 0;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long peekDist() {
+            return dists[0];
+        }
+
+        int peekColumn() {
+            return cols[0];
+        }
+
+        void push(long d, int col) {
+            if (size == dists.length) {
+                dists = Arrays.copyOf(dists, size * 2);
+                cols = Arrays.copyOf(cols, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!less(d, col, dists[parent], cols[parent])) {
+                    break;
+                }
+                dists[i] = dists[parent];
+                cols[i] = cols[parent];
+                i = parent;
+            }
+            dists[i] = d;
+            cols[i] = col;
+        }
+
+        void pop() {
+            size--;
+            long d = dists[size];
+            int col = cols[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && less(dists[child + 1], cols[child + 1], dists[child], cols[child])) {
+                    child++;
+                }
+                if (!less(dists[child], cols[child], d, col)) {
+                    break;
+                }
+                dists[i] = dists[child];
+                cols[i] = cols[child];
+                i = child;
+            }
+            dists[i] = d;
+            cols[i] = col;
+        }
+
+        private static boolean less(long d1, int c1, long d2, int c2) {
+            return d1 < d2 || (d1 == d2 && c1 < c2);
+        }
+    }
+}
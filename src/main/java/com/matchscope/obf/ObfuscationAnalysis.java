@@ -11,7 +11,7 @@ import java.util.Set;
 public class ObfuscationAnalysis {
     // ToDo: add "v4" ?
     private static final Set<String> whiteList = new HashSet<>(Arrays.asList("os", "io", "ui"));
-    private static Set<String> wordlist;
+    private static volatile Set<String> wordlist;
 
     public static ObfuscationLevel getObfuscationLevel(String className) {
         // no need to consider inner classes here
@@ -51,10 +51,20 @@ public class ObfuscationAnalysis {
         }
     }
 
-    public static boolean isWordObfuscated(String word) {
+    private static Set<String> getWordlist() {
+        // profiling may run on a different thread than matching
         if (wordlist == null) {
-            wordlist = Utils.readLinesToSet(CLIParser.getWordlistPath());
+            synchronized (ObfuscationAnalysis.class) {
+                if (wordlist == null) {
+                    wordlist = Utils.readLinesToSet(CLIParser.getWordlistPath());
+                }
+            }
         }
+        return wordlist;
+    }
+
+    public static boolean isWordObfuscated(String word) {
+        Set<String> wordlist = getWordlist();
         assert wordlist != null;
 
         word = word.toLowerCase();
@@ -11,18 +11,28 @@ import soot.util.Chain;
 import com.matchscope.Utils;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 
 public class AppProfile {
     private final String apkPath;
     private final Map<String, ClassProfile> allClasses;
-    private final Chain<SootClass> sootClasses;
+    private final SymbolTable symbols;
     private final String versionName;
     private final int versionCode;
     private final String packageName;
+    // guards every access to the soot scene while classes are profiled concurrently
+    static final Object SOOT_LOCK = new Object();
     private final Logger logger = LoggerFactory.getLogger(AppProfile.class);
 
     public AppProfile(String apkPath, ProcessManifest manifest) {
+        this(apkPath, manifest, true, 1);
+    }
+
+    // without the soot packs only the bodies of the profiled methods are created, on demand
+    public AppProfile(String apkPath, ProcessManifest manifest, boolean runPacks, int threadNum) {
         this.apkPath = apkPath;
         this.packageName = manifest.getPackageName();
         this.versionName = manifest.getVersionName();
@@ -33,19 +43,33 @@ public class AppProfile {
         logger.info("version code: " + this.versionCode);
         logger.info("version name: " + this.versionName);
 
-        logger.info("Run Soot Packs.");
-        PackManager.v().runPacks();
+        if (runPacks) {
+            logger.info("Run Soot Packs.");
+            PackManager.v().runPacks();
+        }
 
-        logger.info("Run MatchScope Profiler.");
+        logger.info("Run MatchScope Profiler with " + threadNum + " threads.");
         this.allClasses = new HashMap<>();
-        this.sootClasses = Scene.v().getApplicationClasses();
+        this.symbols = new SymbolTable();
 
-        create();
+        create(threadNum);
+        logger.info("Symbols: " + symbols.size());
     }
 
+    // used when restoring a profile from the profile cache, no soot analysis is involved
+    AppProfile(String apkPath, String packageName, String versionName, int versionCode, Map<String, ClassProfile> allClasses,
+               SymbolTable symbols) {
+        this.apkPath = apkPath;
+        this.packageName = packageName;
+        this.versionName = versionName;
+        this.versionCode = versionCode;
+        this.allClasses = allClasses;
+        this.symbols = symbols;
+    }
 
-    private void create() {
-        List<SootClass> toMerge = new ArrayList<>();
+    private void create(int threadNum) {
+        List<SootClass> toProfile = new ArrayList<>();
+        Chain<SootClass> sootClasses = Scene.v().getApplicationClasses();
         for (SootClass clazz: sootClasses) {
             //ToDo: currently not analyzing these classes for efficiency
             if (clazz.isPhantomClass()
@@ -55,25 +79,48 @@ public class AppProfile {
             ) {
                 continue;
             }
-            String clazzName = clazz.getName();
-            if (clazzName.contains("$")) {
-                toMerge.add(clazz);
-                continue;
+            toProfile.add(clazz);
+        }
+
+        List<BasicClassProfile> profiles;
+        if (threadNum > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threadNum);
+            try {
+                profiles = pool.submit(() -> toProfile.parallelStream()
+                        .map(this::profileClass)
+                        .collect(Collectors.toList())).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            } finally {
+                pool.shutdown();
             }
+        } else {
+            profiles = toProfile.stream().map(this::profileClass).collect(Collectors.toList());
+        }
 
-            ClassProfile classProfile = new ClassProfile(clazz);
-            String className = classProfile.getName();
-            allClasses.put(className, classProfile);
+        // inner classes are merged once all classes are profiled
+        List<InnerClassProfile> toMerge = new ArrayList<>();
+        for (BasicClassProfile profile: profiles) {
+            if (profile instanceof ClassProfile) {
+                allClasses.put(profile.getName(), (ClassProfile) profile);
+            } else {
+                toMerge.add((InnerClassProfile) profile);
+            }
         }
 
         mergeInnerclass(toMerge);
     }
 
-    private void mergeInnerclass(List<SootClass> toMerge) {
-        for (SootClass clazz: toMerge) {
-            String clazzName = clazz.getName();
-            String enclosingClazz = Utils.getEnclosingClass(clazzName);
-            InnerClassProfile innerClassProfile = new InnerClassProfile(clazz);
+    private BasicClassProfile profileClass(SootClass clazz) {
+        if (clazz.getName().contains("$")) {
+            return new InnerClassProfile(clazz, symbols);
+        }
+        return new ClassProfile(clazz, symbols);
+    }
+
+    private void mergeInnerclass(List<InnerClassProfile> toMerge) {
+        for (InnerClassProfile innerClassProfile: toMerge) {
+            String enclosingClazz = Utils.getEnclosingClass(innerClassProfile.getName());
 
             ClassProfile enclosingProfile = findProfile(enclosingClazz);
             if (enclosingProfile != null) {
@@ -94,6 +141,14 @@ public class AppProfile {
         return allClasses.size();
     }
 
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    public String getApkPath() {
+        return apkPath;
+    }
+
     public int getVersionCode() {
         return versionCode;
     }
@@ -10,55 +10,83 @@ import soot.SootMethod;
 import soot.tagkit.AnnotationTag;
 import soot.tagkit.Tag;
 import soot.tagkit.VisibilityAnnotationTag;
-import soot.util.Chain;
 
 import java.util.*;
 
 public class BasicClassProfile {
-    private final SootClass clazz;
     private final String name;
-    private final Chain<SootField> sootFields;
+    private final SymbolTable symbols;
+    private final int[] fieldTypes;
     private boolean isEnum;
     private boolean isInterface;
     private String superClass;
-    private List<String> interfaces;
-    private final List<SootMethod> methodList;
+    private int[] interfaces;
     private final int methodNum;
     private final List<MethodProfile> methodProfiles;
-    private final List<String> constantStrings = new ArrayList<>();
+    private int[] constantStrings;
     private final List<String> methodFuzzyDescriptors = new ArrayList<>();
-    private final List<String> methodLevel0Hashes = new ArrayList<>();
-    private final List<String> methodLevel1Hashes = new ArrayList<>();
-    private final List<String> methodLevel2Hashes = new ArrayList<>();
-    private final List<String> methodLevel0FuzzyHashes = new ArrayList<>();
-    private final List<String> methodLevel1FuzzyHashes = new ArrayList<>();
-    private final List<String> methodLevel2FuzzyHashes = new ArrayList<>();
-    private String level0Hash;
-    private String level0FuzzyHash;
+    private long[] methodLevel0Hashes;
+    private long[] methodLevel1Hashes;
+    private long[] methodLevel2Hashes;
+    private long level0Hash;
+    private FuzzyHash level0FuzzyHash;
+    private volatile long[] minHashSketch;
     private Enum<ClassType> classType;
     private int weight = 0;
     private final Logger logger = LoggerFactory.getLogger(BasicClassProfile.class);
 
-    public BasicClassProfile(SootClass sootClass) {
-        this.clazz = sootClass;
-        this.name = sootClass.getName();
-        this.sootFields = sootClass.getFields();
-        this.methodList = new ArrayList<>(clazz.getMethods());
+    // all features are copied out of soot, the profile keeps no reference to the scene
+    public BasicClassProfile(SootClass sootClass, SymbolTable symbols) {
+        this.symbols = symbols;
         this.methodProfiles = new ArrayList<>();
 
-        constructDependencies();
-        constructMethodProfiles();
+        // soot is not thread safe, creating bodies and resolving callees may change the scene, so only what needs
+        // soot is read under the lock. The tokens, the symbols and the hashes are built from it concurrently
+        String name;
+        List<String> fieldTypes = new ArrayList<>();
+        String superClass = "";
+        List<String> interfaces = new ArrayList<>();
+        List<MethodProfile.SootMethodData> methods;
+        synchronized (AppProfile.SOOT_LOCK) {
+            name = sootClass.getName();
+            for (SootField sf: sootClass.getFields()) {
+                fieldTypes.add(sf.getType().toString());
+            }
+            this.isEnum = sootClass.isEnum();
+            this.isInterface = sootClass.isInterface();
+            try {
+                superClass = sootClass.getSuperclass().getName();
+            } catch (Exception ignored) {}
+            for (SootClass sc: sootClass.getInterfaces()) {
+                interfaces.add(sc.getName());
+            }
+            methods = readMethods(sootClass);
+        }
+        this.name = name;
+        this.fieldTypes = symbols.getIds(fieldTypes);
+        constructDependencies(superClass, interfaces);
+        for (MethodProfile.SootMethodData data: methods) {
+            this.methodProfiles.add(new MethodProfile(data, symbols));
+        }
+        collectMethodFeatures();
         calculateHashes();
 
         // not same with the soot method num since we filtered synthetic methods
         this.methodNum = this.methodProfiles.size();
-        this.weight = this.methodNum + this.sootFields.size();
+        this.weight = this.methodNum + this.fieldTypes.length;
 
     }
 
-    private void constructDependencies() {
-        this.isEnum = this.clazz.isEnum();
-        this.isInterface = this.clazz.isInterface();
+    // used when restoring a profile from the profile cache or by profilers working without soot,
+    // the hashes are calculated if no fuzzy hash is given
+    BasicClassProfile(String name, boolean isEnum, boolean isInterface, String superClass, List<String> interfaces,
+                      List<String> fieldTypes, List<MethodProfile> methodProfiles, long level0Hash, String level0FuzzyHash,
+                      SymbolTable symbols) {
+        this.symbols = symbols;
+        this.name = name;
+        this.fieldTypes = symbols.getIds(fieldTypes);
+        this.isEnum = isEnum;
+        this.isInterface = isInterface;
         if (this.isEnum) {
             this.classType = ClassType.ENUM;
         } else if (this.isInterface) {
@@ -66,49 +94,69 @@ public class BasicClassProfile {
         } else {
             this.classType = ClassType.CLASS;
         }
+        this.superClass = symbols.intern(superClass);
+        this.interfaces = symbols.getIds(interfaces);
+        this.methodProfiles = methodProfiles;
+        collectMethodFeatures();
+        if (level0FuzzyHash == null) {
+            calculateHashes();
+        } else {
+            this.level0Hash = level0Hash;
+            this.level0FuzzyHash = new FuzzyHash(level0FuzzyHash);
+        }
 
-        this.superClass = "";
-        try {
-            this.superClass = this.clazz.getSuperclass().getName();
-        } catch (Exception ignored) {}
+        this.methodNum = this.methodProfiles.size();
+        this.weight = this.methodNum + this.fieldTypes.length;
+    }
 
-        this.interfaces = new ArrayList<>();
-        for (SootClass sc: this.clazz.getInterfaces()) {
-            this.interfaces.add(sc.getName());
-            Collections.sort(this.interfaces);
+    private void constructDependencies(String superClass, List<String> interfaces) {
+        if (this.isEnum) {
+            this.classType = ClassType.ENUM;
+        } else if (this.isInterface) {
+            this.classType = ClassType.INTERFACE;
+        } else {
+            this.classType = ClassType.CLASS;
         }
 
+        this.superClass = symbols.intern(superClass);
+        Collections.sort(interfaces);
+        this.interfaces = symbols.getIds(interfaces);
+
     }
 
 
-    private void constructMethodProfiles() {
-        for (SootMethod m: this.methodList) {
+    private List<MethodProfile.SootMethodData> readMethods(SootClass sootClass) {
+        List<MethodProfile.SootMethodData> methods = new ArrayList<>();
+        for (SootMethod m: new ArrayList<>(sootClass.getMethods())) {
             if (m.getName().startsWith("access$") ||
                 isDeprecated(m) || Modifier.isSynthetic(m.getModifiers())
             ) {
                 continue;
             }
-            MethodProfile p = new MethodProfile(m);
-            this.methodProfiles.add(p);
-        }
-
-        for (MethodProfile mp: this.methodProfiles) {
-            this.constantStrings.addAll(mp.getConstantStrings());
-            this.methodLevel0Hashes.add(mp.getLevel0Hash());
-            this.methodLevel1Hashes.add(mp.getLevel1Hash());
-            this.methodLevel2Hashes.add(mp.getLevel2Hash());
-            this.methodLevel0FuzzyHashes.add(mp.getLevel0FuzzyHash());
-            this.methodLevel1FuzzyHashes.add(mp.getLevel1FuzzyHash());
-            this.methodLevel2FuzzyHashes.add(mp.getLevel2FuzzyHash());
+            methods.add(new MethodProfile.SootMethodData(m));
+        }
+        return methods;
+    }
+
+    private void collectMethodFeatures() {
+        List<String> constantStrings = new ArrayList<>();
+        int methodNum = this.methodProfiles.size();
+        this.methodLevel0Hashes = new long[methodNum];
+        this.methodLevel1Hashes = new long[methodNum];
+        this.methodLevel2Hashes = new long[methodNum];
+        for (int i = 0; i < methodNum; i++) {
+            MethodProfile mp = this.methodProfiles.get(i);
+            constantStrings.addAll(mp.getConstantStrings());
+            this.methodLevel0Hashes[i] = mp.getLevel0Hash();
+            this.methodLevel1Hashes[i] = mp.getLevel1Hash();
+            this.methodLevel2Hashes[i] = mp.getLevel2Hash();
             this.methodFuzzyDescriptors.add(mp.getFuzzyDescriptor());
         }
-        Collections.sort(this.constantStrings);
-        Collections.sort(this.methodLevel0Hashes);
-        Collections.sort(this.methodLevel1Hashes);
-        Collections.sort(this.methodLevel2Hashes);
-        Collections.sort(this.methodLevel0FuzzyHashes);
-        Collections.sort(this.methodLevel1FuzzyHashes);
-        Collections.sort(this.methodLevel2FuzzyHashes);
+        Collections.sort(constantStrings);
+        this.constantStrings = symbols.getIds(constantStrings);
+        Arrays.sort(this.methodLevel0Hashes);
+        Arrays.sort(this.methodLevel1Hashes);
+        Arrays.sort(this.methodLevel2Hashes);
         Collections.sort(this.methodFuzzyDescriptors);
     }
 
@@ -116,14 +164,69 @@ public class BasicClassProfile {
         String featureString = getLevel0FeatureString();
 //        logger.debug(featureString);
         this.level0Hash = Utils.calculateHash(featureString);
-        this.level0FuzzyHash = Utils.calculateFuzzyHash(featureString);
+        this.level0FuzzyHash = new FuzzyHash(Utils.calculateFuzzyHash(featureString));
+    }
+
+    // The features of the class as a set of hashes: normalized field types and interfaces, constant strings and
+    // the three hashes of every method. A feature occurring k times is added as k distinct elements.
+    public long[] getFeatureSet() {
+        List<String> fieldList = new ArrayList<>();
+        for (String fieldType: getFieldTypes()) {
+            fieldList.add(Utils.getNormalizedType(fieldType));
+        }
+        List<String> interfaceList = new ArrayList<>();
+        for (String s: getInterfaces()) {
+            interfaceList.add(Utils.getNormalizedClassName(s));
+        }
+        long[][] groups = {
+                getStringHashes(fieldList),
+                getStringHashes(interfaceList),
+                getStringHashes(getConstantStrings()),
+                methodLevel0Hashes,
+                methodLevel1Hashes,
+                methodLevel2Hashes
+        };
+        int size = 0;
+        for (long[] group: groups) {
+            size += group.length;
+        }
+        long[] ret = new long[size];
+        int pos = 0;
+        for (int tag = 0; tag < groups.length; tag++) {
+            long[] group = groups[tag];
+            // groups are sorted, so occurrences of the same hash are adjacent
+            int occurrence = 0;
+            for (int i = 0; i < group.length; i++) {
+                occurrence = i > 0 && group[i] == group[i - 1] ? occurrence + 1 : 0;
+                ret[pos++] = Utils.mixHash(Utils.mixHash(tag, group[i]), occurrence);
+            }
+        }
+        return ret;
+    }
+
+    private static long[] getStringHashes(List<String> l) {
+        long[] ret = new long[l.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = Utils.calculateHash(l.get(i));
+        }
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    // the sketch is calculated on first use and kept as long as the same size is requested
+    public long[] getMinHashSketch(int size) {
+        long[] sketch = minHashSketch;
+        if (sketch == null || sketch.length != size) {
+            sketch = MinHash.sketch(getFeatureSet(), size);
+            minHashSketch = sketch;
+        }
+        return sketch;
     }
 
     public Set<String> getFieldsType() {
         Set<String> fieldsType = new TreeSet<>();
-        Chain<SootField> fields = this.clazz.getFields();
-        for (SootField field: fields) {
-            fieldsType.add(Utils.getRawType(field.getType().toString()));
+        for (String fieldType: getFieldTypes()) {
+            fieldsType.add(Utils.getRawType(fieldType));
         }
         return fieldsType;
     }
@@ -153,20 +256,12 @@ public class BasicClassProfile {
         return this.methodNum;
     }
 
-    public List<SootMethod> getMethodList() {
-        return this.methodList;
-    }
-
     public List<MethodProfile> getMethodProfiles() {
         return methodProfiles;
     }
 
-    public SootClass getSootClass() {
-        return this.clazz;
-    }
-
     public List<String> getConstantStrings() {
-        return constantStrings;
+        return symbols.asList(constantStrings);
     }
 
     private String getInstructions() {
@@ -181,13 +276,13 @@ public class BasicClassProfile {
 
     public String getLevel0FeatureString() {
         ArrayList<String> fieldList = new ArrayList<>();
-        for (SootField sf: sootFields) {
-            fieldList.add(Utils.getNormalizedType(sf.getType().toString()));
+        for (String fieldType: getFieldTypes()) {
+            fieldList.add(Utils.getNormalizedType(fieldType));
         }
         Collections.sort(fieldList);
 
         ArrayList<String> interfaceList = new ArrayList<>();
-        for (String s: this.interfaces) {
+        for (String s: getInterfaces()) {
             interfaceList.add(Utils.getNormalizedClassName(s));
         }
         Collections.sort(interfaceList);
@@ -196,14 +291,22 @@ public class BasicClassProfile {
         String interfacesStr = String.join("_", interfaceList);
         String superClass = Utils.getNormalizedClassName(this.superClass);
         String methods = String.join("_", methodFuzzyDescriptors);
-        String constantStrings = String.join("_", this.constantStrings);
+        String constantStrings = String.join("_", getConstantStrings());
         return fields + "__" + interfacesStr + "__" + superClass + "__" + methods + "__" + constantStrings;
     }
 
-    public String getLevel0Hash() {
+    public long getLevel0Hash() {
         return this.level0Hash;
     }
 
+    long getBasicLevel0Hash() {
+        return this.level0Hash;
+    }
+
+    public List<String> getFieldTypes() {
+        return symbols.asList(fieldTypes);
+    }
+
     public boolean isEnum() {
         return isEnum;
     }
@@ -217,7 +320,15 @@ public class BasicClassProfile {
     }
 
     public List<String> getInterfaces() {
-        return interfaces;
+        return symbols.asList(interfaces);
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    public int getWeight() {
+        return weight;
     }
 
     public Enum<ClassType> getClassType() {
@@ -225,6 +336,10 @@ public class BasicClassProfile {
     }
 
     public String getLevel0FuzzyHash() {
+        return level0FuzzyHash.getHash();
+    }
+
+    public FuzzyHash getParsedLevel0FuzzyHash() {
         return level0FuzzyHash;
     }
 
@@ -1,36 +1,47 @@
 package com.matchscope.profile;
 
+import com.matchscope.Utils;
 import com.matchscope.obf.ObfuscationAnalysis;
 import com.matchscope.obf.ObfuscationLevel;
 import soot.SootClass;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 public class ClassProfile extends BasicClassProfile {
     private final ObfuscationLevel obfuscationLevel;
     private final Map<String, InnerClassProfile> innerClasses;
-    private String classLevel0Hash = null;
+    private long classLevel0Hash;
+    private boolean classLevel0HashCalculated = false;
 
-    public ClassProfile(SootClass sootClass) {
-        super(sootClass);
+    public ClassProfile(SootClass sootClass, SymbolTable symbols) {
+        super(sootClass, symbols);
         this.obfuscationLevel = ObfuscationAnalysis.getObfuscationLevel(this.getName());
         this.innerClasses = new TreeMap<>();
     }
 
-    private String calculateLevel0Hash() {
-        StringBuilder basic = new StringBuilder(super.getLevel0Hash());
+    ClassProfile(String name, boolean isEnum, boolean isInterface, String superClass, List<String> interfaces,
+                 List<String> fieldTypes, List<MethodProfile> methodProfiles, long level0Hash, String level0FuzzyHash,
+                 SymbolTable symbols) {
+        super(name, isEnum, isInterface, superClass, interfaces, fieldTypes, methodProfiles, level0Hash, level0FuzzyHash, symbols);
+        this.obfuscationLevel = ObfuscationAnalysis.getObfuscationLevel(this.getName());
+        this.innerClasses = new TreeMap<>();
+    }
+
+    private long calculateLevel0Hash() {
+        long basic = super.getLevel0Hash();
         for (InnerClassProfile innerClassProfile: innerClasses.values()) {
-            basic.append("__");
-            basic.append(innerClassProfile.getLevel0Hash());
+            basic = Utils.mixHash(basic, innerClassProfile.getLevel0Hash());
         }
 
-        return basic.toString();
+        return basic;
     }
 
-    public String getLevel0Hash() {
-        if (classLevel0Hash == null) {
+    public long getLevel0Hash() {
+        if (!classLevel0HashCalculated) {
             classLevel0Hash = calculateLevel0Hash();
+            classLevel0HashCalculated = true;
         }
         return classLevel0Hash;
     }
@@ -0,0 +1,194 @@
+package com.matchscope.profile;
+
+import com.matchscope.Utils;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.*;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.WideLiteralInstruction;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.jimple.infoflow.android.manifest.ProcessManifest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+// Builds app profiles straight from the dalvik bytecode with dexlib2, without loading the apk into soot.
+// Descriptors, invoked methods, constant strings, fields and the class level features are the same as the
+// soot profiler extracts, so the level0 and level1 hashes are comparable. The level2 features are built from
+// dalvik opcodes instead of jimple statements (and the statement num counts dalvik instructions), so level2
+// hashes are only comparable between profiles of the same profiler.
+public class DexProfiler {
+    private static final Logger logger = LoggerFactory.getLogger(DexProfiler.class);
+
+    public static AppProfile profile(String apkPath, ProcessManifest manifest, int threadNum) throws IOException {
+        logger.info("Profiling: " + apkPath);
+        logger.info("package name: " + manifest.getPackageName());
+        logger.info("version code: " + manifest.getVersionCode());
+        logger.info("version name: " + manifest.getVersionName());
+
+        MultiDexContainer<? extends DexBackedDexFile> container = DexFileFactory.loadDexContainer(new File(apkPath), Opcodes.getDefault());
+        List<DexFile> dexFiles = new ArrayList<>();
+        for (String entryName: container.getDexEntryNames()) {
+            dexFiles.add(container.getEntry(entryName).getDexFile());
+        }
+        logger.info("Run MatchScope Dex Profiler on " + dexFiles.size() + " dex files.");
+
+        // every dex file is profiled on its own, inner classes are merged once all of them are done
+        SymbolTable symbols = new SymbolTable();
+        ForkJoinPool pool = new ForkJoinPool(threadNum);
+        List<List<BasicClassProfile>> profiles;
+        try {
+            profiles = pool.submit(() -> dexFiles.parallelStream()
+                    .map(dexFile -> profileDexFile(dexFile, symbols))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<String, ClassProfile> allClasses = new HashMap<>();
+        List<InnerClassProfile> toMerge = new ArrayList<>();
+        for (List<BasicClassProfile> l: profiles) {
+            for (BasicClassProfile cp: l) {
+                if (cp instanceof ClassProfile) {
+                    allClasses.putIfAbsent(cp.getName(), (ClassProfile) cp);
+                } else {
+                    toMerge.add((InnerClassProfile) cp);
+                }
+            }
+        }
+        for (InnerClassProfile icp: toMerge) {
+            ClassProfile enclosingProfile = allClasses.get(Utils.getEnclosingClass(icp.getName()));
+            if (enclosingProfile != null) {
+                enclosingProfile.updateClassProfile(icp);
+            }
+        }
+
+        return new AppProfile(apkPath, manifest.getPackageName(), manifest.getVersionName(), manifest.getVersionCode(), allClasses, symbols);
+    }
+
+    private static List<BasicClassProfile> profileDexFile(DexFile dexFile, SymbolTable symbols) {
+        List<BasicClassProfile> ret = new ArrayList<>();
+        for (ClassDef classDef: dexFile.getClasses()) {
+            String className = Utils.dexClassType2Name(classDef.getType());
+            //ToDo: currently not analyzing these classes for efficiency
+            if (Utils.isAndroidClass(className)
+                    || Utils.isResourceClass(className)
+                    || AccessFlags.SYNTHETIC.isSet(classDef.getAccessFlags())
+            ) {
+                continue;
+            }
+            ret.add(profileClass(className, classDef, symbols));
+        }
+        return ret;
+    }
+
+    private static BasicClassProfile profileClass(String className, ClassDef classDef, SymbolTable symbols) {
+        boolean isEnum = AccessFlags.ENUM.isSet(classDef.getAccessFlags());
+        boolean isInterface = AccessFlags.INTERFACE.isSet(classDef.getAccessFlags());
+        String superClass = classDef.getSuperclass() == null ? "" : Utils.dexType2JavaType(classDef.getSuperclass());
+
+        List<String> interfaces = new ArrayList<>();
+        for (String i: classDef.getInterfaces()) {
+            interfaces.add(Utils.dexType2JavaType(i));
+        }
+        Collections.sort(interfaces);
+
+        List<String> fieldTypes = new ArrayList<>();
+        for (Field field: classDef.getFields()) {
+            fieldTypes.add(Utils.dexType2JavaType(field.getType()));
+        }
+
+        List<MethodProfile> methodProfiles = new ArrayList<>();
+        for (Method method: classDef.getMethods()) {
+            if (method.getName().startsWith("access$") ||
+                isDeprecated(method) || AccessFlags.SYNTHETIC.isSet(method.getAccessFlags())
+            ) {
+                continue;
+            }
+            methodProfiles.add(profileMethod(className, method, symbols));
+        }
+
+        if (className.contains("$")) {
+            return new InnerClassProfile(className, isEnum, isInterface, superClass, interfaces, fieldTypes,
+                    methodProfiles, 0, null, symbols);
+        } else {
+            return new ClassProfile(className, isEnum, isInterface, superClass, interfaces, fieldTypes,
+                    methodProfiles, 0, null, symbols);
+        }
+    }
+
+    private static MethodProfile profileMethod(String className, Method method, SymbolTable symbols) {
+        List<String> parameterTypes = new ArrayList<>();
+        for (CharSequence parameterType: method.getParameterTypes()) {
+            parameterTypes.add(Utils.getRawType(Utils.dexType2JavaType(parameterType.toString())));
+        }
+        String returnTypeName = Utils.dexType2JavaType(method.getReturnType());
+
+        List<String> instructions = new ArrayList<>();
+        List<String> constantStrings = new ArrayList<>();
+        List<String> invokedMethods = new ArrayList<>();
+        int statementNum = 0;
+
+        MethodImplementation implementation = method.getImplementation();
+        if (implementation != null) {
+            for (Instruction instruction: implementation.getInstructions()) {
+                statementNum++;
+                List<String> values = new ArrayList<>();
+                if (instruction instanceof ReferenceInstruction) {
+                    Reference reference = ((ReferenceInstruction) instruction).getReference();
+                    if (reference instanceof StringReference) {
+                        String cs = ((StringReference) reference).getString();
+                        constantStrings.add(cs);
+                        values.add(cs);
+                    } else if (reference instanceof MethodReference) {
+                        MethodReference m = (MethodReference) reference;
+                        String c = Utils.dexType2JavaType(m.getDefiningClass());
+                        invokedMethods.add(c + " " + getSubSignature(m));
+                        if (Utils.isAndroidClass(c)) {
+                            values.add(c);
+                        }
+                    }
+                }
+                if (instruction instanceof WideLiteralInstruction) {
+                    values.add(String.valueOf(((WideLiteralInstruction) instruction).getWideLiteral()));
+                }
+                Collections.sort(values);
+                instructions.add(instruction.getOpcode().name + " " + String.join(" ", values));
+            }
+        }
+
+        return new MethodProfile(method.getName(), className, getSubSignature(method), returnTypeName, parameterTypes,
+                statementNum, instructions, constantStrings, invokedMethods, symbols);
+    }
+
+    // same format as soot: returnType name(parameterType,parameterType)
+    private static String getSubSignature(MethodReference m) {
+        List<String> parameterTypes = new ArrayList<>();
+        for (CharSequence parameterType: m.getParameterTypes()) {
+            parameterTypes.add(Utils.dexType2JavaType(parameterType.toString()));
+        }
+        return Utils.dexType2JavaType(m.getReturnType()) + " " + m.getName() + "(" + String.join(",", parameterTypes) + ")";
+    }
+
+    private static boolean isDeprecated(Method method) {
+        for (Annotation annotation: method.getAnnotations()) {
+            if (Objects.equals(annotation.getType(), "Lkotlin/Deprecated;")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
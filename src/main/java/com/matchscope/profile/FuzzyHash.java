@@ -0,0 +1,161 @@
+package com.matchscope.profile;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A SpamSum hash (blocksize:digest1:digest2) parsed once for comparison. As in ssdeep, runs of more than three
+// identical characters are shortened to three and the 7-grams of both digests are kept sorted, so two hashes
+// without a common 7-gram can be rejected without computing an edit distance.
+// The digests are at most 64 characters, for each digest the positions of its characters are kept as
+// one bitmask per distinct character (the Peq table of Myers' bit-parallel edit distance).
+// Every parsed hash gets a unique id, scores are cached by the ids of the two hashes.
+public class FuzzyHash {
+    public static final int GRAM_SIZE = 7;
+    public static final int MAX_BIT_PARALLEL_LENGTH = 64;
+    private static final long[] NO_GRAMS = new long[0];
+    private static final char[] NO_CHARS = new char[0];
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private final int id = nextId.getAndIncrement() & Integer.MAX_VALUE;
+    private final String hash;
+    private final int blockSize;
+    private final String digest1;   // digest with blockSize
+    private final String digest2;   // digest with blockSize * 2
+    private final long[] grams1;
+    private final long[] grams2;
+    private final char[] peqChars1;
+    private final long[] peqMasks1;
+    private final char[] peqChars2;
+    private final long[] peqMasks2;
+
+    public FuzzyHash(String hash) {
+        int first = hash.indexOf(':');
+        int second = hash.indexOf(':', first + 1);
+        if (first < 0 || second < 0) {
+            throw new IllegalArgumentException("Not a SpamSum hash: " + hash);
+        }
+        this.hash = hash;
+        this.blockSize = Integer.parseInt(hash.substring(0, first));
+        this.digest1 = eliminateSequences(hash.substring(first + 1, second));
+        this.digest2 = eliminateSequences(hash.substring(second + 1));
+        this.grams1 = getGrams(digest1);
+        this.grams2 = getGrams(digest2);
+        this.peqChars1 = getPeqChars(digest1);
+        this.peqMasks1 = getPeqMasks(digest1, peqChars1);
+        this.peqChars2 = getPeqChars(digest2);
+        this.peqMasks2 = getPeqMasks(digest2, peqChars2);
+    }
+
+    private static char[] getPeqChars(String digest) {
+        if (digest.length() > MAX_BIT_PARALLEL_LENGTH) {
+            return NO_CHARS;
+        }
+        return digest.chars().distinct().sorted().collect(StringBuilder::new, StringBuilder::appendCodePoint,
+                StringBuilder::append).toString().toCharArray();
+    }
+
+    private static long[] getPeqMasks(String digest, char[] peqChars) {
+        long[] masks = new long[peqChars.length];
+        for (int i = 0; i < peqChars.length; i++) {
+            for (int j = 0; j < digest.length(); j++) {
+                if (digest.charAt(j) == peqChars[i]) {
+                    masks[i] |= 1L << j;
+                }
+            }
+        }
+        return masks;
+    }
+
+    private static String eliminateSequences(String digest) {
+        StringBuilder sb = new StringBuilder(digest.length());
+        for (int i = 0; i < digest.length(); i++) {
+            char c = digest.charAt(i);
+            int n = sb.length();
+            if (n >= 3 && sb.charAt(n - 1) == c && sb.charAt(n - 2) == c && sb.charAt(n - 3) == c) {
+                continue;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // every 7-gram is packed into one long, the digests only contain base64 characters
+    private static long[] getGrams(String digest) {
+        if (digest.length() < GRAM_SIZE) {
+            return NO_GRAMS;
+        }
+        long[] grams = new long[digest.length() - GRAM_SIZE + 1];
+        long gram = 0;
+        for (int i = 0; i < digest.length(); i++) {
+            gram = (gram << 8 | (digest.charAt(i) & 0xff)) & 0xffffffffffffffL;
+            if (i >= GRAM_SIZE - 1) {
+                grams[i - GRAM_SIZE + 1] = gram;
+            }
+        }
+        Arrays.sort(grams);
+        return grams;
+    }
+
+    public static boolean hasCommonGram(long[] g1, long[] g2) {
+        int i = 0;
+        int j = 0;
+        while (i < g1.length && j < g2.length) {
+            if (g1[i] == g2[j]) {
+                return true;
+            } else if (g1[i] < g2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return false;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public String getDigest1() {
+        return digest1;
+    }
+
+    public String getDigest2() {
+        return digest2;
+    }
+
+    public long[] getGrams1() {
+        return grams1;
+    }
+
+    public long[] getGrams2() {
+        return grams2;
+    }
+
+    public char[] getPeqChars1() {
+        return peqChars1;
+    }
+
+    public long[] getPeqMasks1() {
+        return peqMasks1;
+    }
+
+    public char[] getPeqChars2() {
+        return peqChars2;
+    }
+
+    public long[] getPeqMasks2() {
+        return peqMasks2;
+    }
+
+    @Override
+    public String toString() {
+        return hash;
+    }
+}
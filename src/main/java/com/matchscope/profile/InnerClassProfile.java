@@ -2,9 +2,17 @@ package com.matchscope.profile;
 
 import soot.SootClass;
 
+import java.util.List;
+
 public class InnerClassProfile extends BasicClassProfile{
 
-    public InnerClassProfile(SootClass sootClass) {
-        super(sootClass);
+    public InnerClassProfile(SootClass sootClass, SymbolTable symbols) {
+        super(sootClass, symbols);
+    }
+
+    InnerClassProfile(String name, boolean isEnum, boolean isInterface, String superClass, List<String> interfaces,
+                      List<String> fieldTypes, List<MethodProfile> methodProfiles, long level0Hash, String level0FuzzyHash,
+                      SymbolTable symbols) {
+        super(name, isEnum, isInterface, superClass, interfaces, fieldTypes, methodProfiles, level0Hash, level0FuzzyHash, symbols);
     }
 }
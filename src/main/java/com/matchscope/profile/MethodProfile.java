@@ -9,79 +9,169 @@ import soot.jimple.internal.ConditionExprBox;
 import soot.jimple.internal.ImmediateBox;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class MethodProfile {
-    private final SootMethod sootMethod;
     private final String name;
     private final String className;
-    private final List<String> constantStrings;
-    private String level0Hash;   // use method descriptor
-    private String level1Hash;   // use invoked methods
-    private String level2Hash;   // use instruction operation
-    private String level0FuzzyHash;
-    private String level1FuzzyHash;
-    private String level2FuzzyHash;
+    private final String subSignature;
+    private final SymbolTable symbols;
+    private final int[] constantStrings;
+    private long level0Hash;   // use method descriptor
+    private long level1Hash;   // use invoked methods
+    private long level2Hash;   // use instruction operation
+    // most methods are matched by the hashes above, so the fuzzy hashes are only calculated on first access
+    private volatile FuzzyHash level0FuzzyHash;
+    private volatile FuzzyHash level1FuzzyHash;
+    private volatile FuzzyHash level2FuzzyHash;
+    private static final AtomicLong materializedFuzzyHashNum = new AtomicLong();
+    private static final AtomicReferenceFieldUpdater<MethodProfile, FuzzyHash> LEVEL0_FUZZY_HASH =
+            AtomicReferenceFieldUpdater.newUpdater(MethodProfile.class, FuzzyHash.class, "level0FuzzyHash");
+    private static final AtomicReferenceFieldUpdater<MethodProfile, FuzzyHash> LEVEL1_FUZZY_HASH =
+            AtomicReferenceFieldUpdater.newUpdater(MethodProfile.class, FuzzyHash.class, "level1FuzzyHash");
+    private static final AtomicReferenceFieldUpdater<MethodProfile, FuzzyHash> LEVEL2_FUZZY_HASH =
+            AtomicReferenceFieldUpdater.newUpdater(MethodProfile.class, FuzzyHash.class, "level2FuzzyHash");
     private final String returnType;
-    private final List<String> parameterTypes;
+    private final int[] parameterTypes;
+    private final String fuzzyDescriptor;
     private int statementNum = 0;
-    private final List<String> instructions;
-    private Body body = null;
-    private final List<String> invokedMethods;
-
-    public MethodProfile(SootMethod sootMethod) {
-        this.sootMethod = sootMethod;
-        this.name = sootMethod.getName();
-        this.className = sootMethod.getDeclaringClass().getName();
-        this.returnType = Utils.getRawType(this.sootMethod.getReturnType().toString());
-        this.parameterTypes = new ArrayList<>();
-        List<Type> pts = sootMethod.getParameterTypes();
-        for (Type parameterType : pts) {
-            this.parameterTypes.add(Utils.getRawType(parameterType.toString()));
+    private final int[] instructions;
+    private final int[] invokedMethods;
+
+    // What the profile needs from soot for one method, read under the soot lock: the descriptor, the units of the
+    // body and the resolved callee of every unit, resolving a callee may load classes into the scene. The units are
+    // kept after the body is released, reading their boxes does not touch the scene.
+    static class SootMethodData {
+        private final String name;
+        private final String className;
+        private final String subSignature;
+        private final String returnType;
+        private final List<String> parameterTypes = new ArrayList<>();
+        private final List<Unit> units = new ArrayList<>();
+        // declaring class and sub signature of the callee of every unit, null if the unit invokes nothing
+        private final List<String[]> callees = new ArrayList<>();
+
+        SootMethodData(SootMethod sootMethod) {
+            this.name = sootMethod.getName();
+            this.className = sootMethod.getDeclaringClass().getName();
+            this.subSignature = sootMethod.getSubSignature();
+            this.returnType = sootMethod.getReturnType().toString();
+            for (Type parameterType : sootMethod.getParameterTypes()) {
+                parameterTypes.add(parameterType.toString());
+            }
+
+            Body body = null;
+            try {
+                body = sootMethod.retrieveActiveBody();
+            } catch (Exception ignore) {}
+            if (body == null) {
+                return;
+            }
+            for (Unit unit: body.getUnits()) {
+                String[] callee = null;
+                if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
+                    SootMethod m = ((Stmt) unit).getInvokeExpr().getMethod();
+                    callee = new String[]{m.getDeclaringClass().getName(), m.getSubSignature()};
+                }
+                units.add(unit);
+                callees.add(callee);
+            }
+            // the jimple body is not needed anymore once the units are taken
+            sootMethod.releaseActiveBody();
         }
+    }
+
+    // the features and hashes are extracted from the data outside the soot lock
+    MethodProfile(SootMethodData data, SymbolTable symbols) {
+        this.symbols = symbols;
+        this.name = data.name;
+        this.className = symbols.intern(data.className);
+        this.subSignature = data.subSignature;
+        this.returnType = symbols.intern(Utils.getRawType(data.returnType));
+        List<String> parameterTypes = new ArrayList<>();
+        for (String parameterType : data.parameterTypes) {
+            parameterTypes.add(Utils.getRawType(parameterType));
+        }
+        this.parameterTypes = symbols.getIds(parameterTypes);
+        this.fuzzyDescriptor = symbols.intern(constructFuzzyDescriptor(data.returnType));
 
-        try {
-            body = sootMethod.retrieveActiveBody();
-        } catch (Exception ignore) {}
+        List<String> instructions = new ArrayList<>();
+        List<String> constantStrings = new ArrayList<>();
+        List<String> invokedMethods = new ArrayList<>();
+        constructMethodProfiles(data, instructions, constantStrings, invokedMethods);
+        this.instructions = symbols.getIds(instructions);
+        this.constantStrings = symbols.getIds(constantStrings);
+        this.invokedMethods = symbols.getIds(invokedMethods);
+
+        calculateMethodHashes();
+    }
 
-        this.instructions = new ArrayList<>();
-        this.constantStrings = new ArrayList<>();
-        this.invokedMethods = new ArrayList<>();
+    // used by profilers working without soot, the features are already extracted but the hashes are not
+    MethodProfile(String name, String className, String subSignature, String returnTypeName, List<String> parameterTypes,
+                  int statementNum, List<String> instructions, List<String> constantStrings, List<String> invokedMethods,
+                  SymbolTable symbols) {
+        this.symbols = symbols;
+        this.name = name;
+        this.className = symbols.intern(className);
+        this.subSignature = subSignature;
+        this.returnType = symbols.intern(Utils.getRawType(returnTypeName));
+        this.parameterTypes = symbols.getIds(parameterTypes);
+        this.fuzzyDescriptor = symbols.intern(constructFuzzyDescriptor(returnTypeName));
+        this.statementNum = statementNum;
+        this.instructions = symbols.getIds(instructions);
+        this.constantStrings = symbols.getIds(constantStrings);
+        this.invokedMethods = symbols.getIds(invokedMethods);
 
-        constructMethodProfiles();
         calculateMethodHashes();
+    }
 
+    // used when restoring a profile from the profile cache, all features and hashes are already computed
+    MethodProfile(String name, String className, String subSignature, String returnType, int[] parameterTypes,
+                  String fuzzyDescriptor, int statementNum, int[] instructions, int[] constantStrings,
+                  int[] invokedMethods, SymbolTable symbols, long[] hashes) {
+        this.symbols = symbols;
+        this.name = name;
+        this.className = className;
+        this.subSignature = subSignature;
+        this.returnType = returnType;
+        this.parameterTypes = parameterTypes;
+        this.fuzzyDescriptor = fuzzyDescriptor;
+        this.statementNum = statementNum;
+        this.instructions = instructions;
+        this.constantStrings = constantStrings;
+        this.invokedMethods = invokedMethods;
+        this.level0Hash = hashes[0];
+        this.level1Hash = hashes[1];
+        this.level2Hash = hashes[2];
     }
 
     private void calculateMethodHashes() {
-        String fuzzyDescriptor = getFuzzyDescriptor();
         this.level0Hash = Utils.calculateHash(fuzzyDescriptor);
-        this.level0FuzzyHash = Utils.calculateFuzzyHash(fuzzyDescriptor);
-
-        String normalizedInvokedMethods = getNormalizedInvokedMethods();
-        this.level1Hash = Utils.calculateHash(normalizedInvokedMethods);
-        this.level1FuzzyHash = Utils.calculateFuzzyHash(normalizedInvokedMethods);
-
-        String instructions = String.join(" ", this.instructions);
-        this.level2Hash = Utils.calculateHash(instructions);
-        this.level2FuzzyHash = Utils.calculateFuzzyHash(instructions);
+        this.level1Hash = Utils.calculateHash(getNormalizedInvokedMethods());
+        this.level2Hash = Utils.calculateHash(getInstructions());
 
     }
 
 
-    private String getNormalizedInvokedMethods() {
+    private List<String> getNormalizedInvokedMethods() {
         List<String> normalized = new ArrayList<>();
-        for (String i: this.invokedMethods) {
+        for (String i: getInvokedMethods()) {
             normalized.add(Utils.getNormalizedClassName(i));
         }
         Collections.sort(normalized);
-        return String.join(" ", normalized);
+        return normalized;
     }
 
     public String getFuzzyDescriptor() {
+        return fuzzyDescriptor;
+    }
+
+    private String constructFuzzyDescriptor(String returnTypeName) {
         // Class Name + Access Flag + return Type + Method Name + Parameter Types
         StringBuilder fuzzyDescriptor = new StringBuilder("(");
         List<String> parameters = new ArrayList<>();
-        for (String s : parameterTypes) {
+        for (String s : getParameterTypes()) {
             if (Utils.isAndroidType(s)) {
                 parameters.add(s);
             } else {
@@ -94,9 +184,8 @@ public class MethodProfile {
         fuzzyDescriptor.append(parameterString);
         fuzzyDescriptor.append(")");
 
-        Type type = sootMethod.getReturnType();
-        if (Utils.isAndroidType(type.toString())) {
-            fuzzyDescriptor.append(type);
+        if (Utils.isAndroidType(returnTypeName)) {
+            fuzzyDescriptor.append(returnTypeName);
         } else {
             fuzzyDescriptor.append("X");
         }
@@ -104,11 +193,12 @@ public class MethodProfile {
         return fuzzyDescriptor.toString();
     }
 
-    private void constructMethodProfiles() {
-        if (this.body != null) {
-            this.statementNum = body.getUnits().size();
+    private void constructMethodProfiles(SootMethodData data, List<String> instructions, List<String> constantStrings, List<String> invokedMethods) {
+        if (!data.units.isEmpty()) {
+            this.statementNum = data.units.size();
 //            System.out.println(this.sootMethod.getSignature());
-            for (Unit unit: body.getUnits()) {
+            for (int i = 0; i < data.units.size(); i++) {
+                Unit unit = data.units.get(i);
 //                System.out.println(unit + " " + unit.getClass());
 //                for (ValueBox b: unit.getUseAndDefBoxes()) {
 //                    System.out.println(b + " " + b.getClass());
@@ -119,14 +209,11 @@ public class MethodProfile {
                 String operator = name.substring(1, name.length() - 4);
                 List<String> values = new ArrayList<>();
 
-                if (unit instanceof Stmt) {
-                    if (((Stmt) unit).containsInvokeExpr()) {
-                        SootMethod m = ((Stmt) unit).getInvokeExpr().getMethod();
-                        SootClass c = m.getDeclaringClass();
-                        this.invokedMethods.add(c + " " + m.getSubSignature());
-                        if (Utils.isAndroidClass(c)) {
-                            values.add(c.toString());
-                        }
+                String[] callee = data.callees.get(i);
+                if (callee != null) {
+                    invokedMethods.add(callee[0] + " " + callee[1]);
+                    if (Utils.isAndroidClass(callee[0])) {
+                        values.add(callee[0]);
                     }
                 }
 
@@ -134,8 +221,8 @@ public class MethodProfile {
                     if (b instanceof ImmediateBox) {
                         Value value = b.getValue();
                         if (value instanceof StringConstant) {
-                            String cs = value.toString();
-                            cs = cs.substring(1, cs.length() - 1);
+                            // the unescaped value, as the dex profiler reads it
+                            String cs = ((StringConstant) value).value;
                             if (cs.equals("Null throw statement replaced by Soot")) {
                                 cs = "NULL";
                             }
@@ -157,22 +244,38 @@ public class MethodProfile {
     }
 
     public List<String> getInstructions() {
-        return instructions;
+        return symbols.asList(instructions);
     }
 
     public List<String> getConstantStrings() {
+        return symbols.asList(constantStrings);
+    }
+
+    int[] getInstructionIds() {
+        return instructions;
+    }
+
+    int[] getConstantStringIds() {
         return constantStrings;
     }
 
-    public String getLevel0Hash() {
+    int[] getParameterTypeIds() {
+        return parameterTypes;
+    }
+
+    int[] getInvokedMethodIds() {
+        return invokedMethods;
+    }
+
+    public long getLevel0Hash() {
         return level0Hash;
     }
 
-    public String getLevel1Hash() {
+    public long getLevel1Hash() {
         return level1Hash;
     }
 
-    public String getLevel2Hash() {
+    public long getLevel2Hash() {
         return level2Hash;
     }
 
@@ -180,8 +283,8 @@ public class MethodProfile {
         return statementNum;
     }
 
-    public SootMethod getSootMethod() {
-        return sootMethod;
+    public String getSubSignature() {
+        return subSignature;
     }
 
     public String getReturnType() {
@@ -189,17 +292,17 @@ public class MethodProfile {
     }
 
     public List<String> getParameterTypes() {
-        return parameterTypes;
+        return symbols.asList(parameterTypes);
     }
 
     public List<String> getInvokedMethods() {
-        return invokedMethods;
+        return symbols.asList(invokedMethods);
     }
 
     public List<String> getInvokedNonSystemMethod() {
         // ToDo: handle overload that multiple function share the same name
         List<String> ret = new ArrayList<>();
-        for (String s: invokedMethods) {
+        for (String s: getInvokedMethods()) {
             if (!Utils.isAndroidClass(s)) {
                 ret.add(s);
             }
@@ -216,14 +319,44 @@ public class MethodProfile {
     }
 
     public String getLevel0FuzzyHash() {
-        return level0FuzzyHash;
+        return getParsedLevel0FuzzyHash().getHash();
     }
 
     public String getLevel1FuzzyHash() {
-        return level1FuzzyHash;
+        return getParsedLevel1FuzzyHash().getHash();
     }
 
     public String getLevel2FuzzyHash() {
-        return level2FuzzyHash;
+        return getParsedLevel2FuzzyHash().getHash();
+    }
+
+    public FuzzyHash getParsedLevel0FuzzyHash() {
+        FuzzyHash h = level0FuzzyHash;
+        return h != null ? h : publish(LEVEL0_FUZZY_HASH, Utils.calculateFuzzyHash(fuzzyDescriptor));
+    }
+
+    public FuzzyHash getParsedLevel1FuzzyHash() {
+        FuzzyHash h = level1FuzzyHash;
+        return h != null ? h : publish(LEVEL1_FUZZY_HASH, Utils.calculateFuzzyHash(getNormalizedInvokedMethods()));
+    }
+
+    public FuzzyHash getParsedLevel2FuzzyHash() {
+        FuzzyHash h = level2FuzzyHash;
+        return h != null ? h : publish(LEVEL2_FUZZY_HASH, Utils.calculateFuzzyHash(getInstructions()));
+    }
+
+    // concurrent first accesses may all calculate the hash, only the one publishing it is counted and every
+    // caller gets the published instance
+    private FuzzyHash publish(AtomicReferenceFieldUpdater<MethodProfile, FuzzyHash> updater, String hash) {
+        FuzzyHash h = new FuzzyHash(hash);
+        if (updater.compareAndSet(this, null, h)) {
+            materializedFuzzyHashNum.incrementAndGet();
+            return h;
+        }
+        return updater.get(this);
+    }
+
+    public static long getMaterializedFuzzyHashNum() {
+        return materializedFuzzyHashNum.get();
     }
 }
@@ -0,0 +1,53 @@
+package com.matchscope.profile;
+
+import java.util.Arrays;
+
+// MinHash sketches of sets of 64-bit feature hashes. Position i of a sketch is the minimum of the i-th hash
+// function over the set, two sets have the same value at a position with probability equal to their Jaccard
+// similarity, so the fraction of equal positions estimates it.
+// The i-th hash function is a murmur3 finalizer over the feature xor a fixed per position seed.
+public class MinHash {
+
+    public static long[] sketch(long[] features, int size) {
+        long[] sketch = new long[size];
+        Arrays.fill(sketch, Long.MAX_VALUE);
+        for (long feature: features) {
+            long base = fmix64(feature);
+            for (int i = 0; i < size; i++) {
+                long h = fmix64(base ^ ((i + 1) * 0x9e3779b97f4a7c15L));
+                if (h < sketch[i]) {
+                    sketch[i] = h;
+                }
+            }
+        }
+        return sketch;
+    }
+
+    // fraction of positions where both sketches agree, sketches of empty sets are similar to nothing
+    public static double estimateJaccard(long[] s1, long[] s2) {
+        int size = Math.min(s1.length, s2.length);
+        if (size == 0 || isEmpty(s1) || isEmpty(s2)) {
+            return 0;
+        }
+        int equal = 0;
+        for (int i = 0; i < size; i++) {
+            if (s1[i] == s2[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / size;
+    }
+
+    public static boolean isEmpty(long[] sketch) {
+        return sketch.length == 0 || sketch[0] == Long.MAX_VALUE;
+    }
+
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53e94cdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
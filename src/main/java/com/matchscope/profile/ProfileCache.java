@@ -0,0 +1,130 @@
+package com.matchscope.profile;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// On-disk cache of serialized app profiles, keyed by the SHA-256 of the apk, the profiler, the soot configuration and
+// the profile feature version.
+// Entries are published with an atomic rename so concurrent processes never see partial files,
+// and eviction (least recently used first) runs under an exclusive lock on the cache directory.
+public class ProfileCache {
+    private static final String SUFFIX = ".profile";
+    private static final String LOCK_FILE = ".lock";
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final ProfilerBackend profilerBackend;
+    // profiles of the profile-only soot configuration are not verified to equal the full ones, they are kept apart
+    private final boolean sootProfileOnly;
+    private final Logger logger = LoggerFactory.getLogger(ProfileCache.class);
+
+    public ProfileCache(String cacheDir, long maxBytes, ProfilerBackend profilerBackend, boolean sootProfileOnly) {
+        this.cacheDir = Paths.get(cacheDir);
+        this.maxBytes = maxBytes;
+        this.profilerBackend = profilerBackend;
+        this.sootProfileOnly = sootProfileOnly;
+        try {
+            Files.createDirectories(this.cacheDir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public AppProfile load(String apkPath) {
+        Path entry;
+        try {
+            entry = getEntry(apkPath);
+        } catch (IOException e) {
+            logger.warn("Cannot hash apk: " + apkPath);
+            return null;
+        }
+
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(entry))) {
+            AppProfile appProfile = ProfileSerializer.read(is);
+            // refresh the access time so that the entry is kept by the LRU eviction
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            logger.info("Profile cache hit: " + apkPath);
+            return appProfile;
+        } catch (NoSuchFileException e) {
+            logger.info("Profile cache miss: " + apkPath);
+        } catch (IOException e) {
+            logger.warn("Broken profile cache entry: " + entry);
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException ignored) {}
+        }
+        return null;
+    }
+
+    public void store(String apkPath, AppProfile appProfile) {
+        Path tmp = null;
+        try {
+            Path entry = getEntry(apkPath);
+            tmp = Files.createTempFile(cacheDir, entry.getFileName().toString(), ".tmp");
+            try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                ProfileSerializer.write(appProfile, os);
+            }
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            evict();
+        } catch (IOException e) {
+            logger.warn("Cannot write profile cache entry for: " + apkPath);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private void evict() throws IOException {
+        try (FileChannel channel = FileChannel.open(cacheDir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            List<Path> entries;
+            try (Stream<Path> s = Files.list(cacheDir)) {
+                entries = s.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).collect(Collectors.toList());
+            }
+
+            Map<Path, FileTime> accessTime = new HashMap<>();
+            Map<Path, Long> size = new HashMap<>();
+            long total = 0;
+            for (Path p: entries) {
+                try {
+                    accessTime.put(p, Files.getLastModifiedTime(p));
+                    size.put(p, Files.size(p));
+                    total += size.get(p);
+                } catch (NoSuchFileException ignore) {}
+            }
+
+            List<Path> lru = new ArrayList<>(accessTime.keySet());
+            lru.sort(Comparator.comparing(accessTime::get));
+            for (Path p: lru) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                Files.deleteIfExists(p);
+                total -= size.get(p);
+                logger.info("Profile cache evicted: " + p.getFileName());
+            }
+        }
+    }
+
+    private Path getEntry(String apkPath) throws IOException {
+        String apkHash = com.google.common.io.Files.asByteSource(new File(apkPath)).hash(Hashing.sha256()).toString();
+        String backend = profilerBackend.name().toLowerCase();
+        if (profilerBackend == ProfilerBackend.SOOT && sootProfileOnly) {
+            backend += "-profile-only";
+        }
+        return cacheDir.resolve(apkHash + "-" + backend + "-v" + ProfileSerializer.FEATURE_VERSION + SUFFIX);
+    }
+}
@@ -0,0 +1,252 @@
+package com.matchscope.profile;
+
+import java.io.*;
+import java.util.*;
+
+// Compact binary form of an AppProfile. The symbol table of the app is written first and the features
+// reference it by id. Other strings are written once and referenced by index afterwards.
+// Strings are written as their UTF-16 code units, constant strings of obfuscated apps may contain unpaired
+// surrogates which UTF-8 would replace by '?'.
+public class ProfileSerializer {
+    // bump whenever the extracted features or the hashes built from them change
+    public static final int FEATURE_VERSION = 6;
+    private static final int MAGIC = 0x4d535046;
+
+    public static void write(AppProfile appProfile, OutputStream os) throws IOException {
+        Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(os)));
+        writer.writeAppProfile(appProfile);
+        writer.out.flush();
+    }
+
+    public static AppProfile read(InputStream is) throws IOException {
+        Reader reader = new Reader(new DataInputStream(new BufferedInputStream(is)));
+        return reader.readAppProfile();
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> pool = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeAppProfile(AppProfile appProfile) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(FEATURE_VERSION);
+            writeString(appProfile.getApkPath());
+            writeString(appProfile.getPackageName());
+            writeString(appProfile.getVersionName());
+            out.writeInt(appProfile.getVersionCode());
+
+            SymbolTable symbols = appProfile.getSymbolTable();
+            int symbolNum = symbols.size();
+            out.writeInt(symbolNum);
+            for (int i = 0; i < symbolNum; i++) {
+                writeChars(symbols.getSymbol(i));
+            }
+
+            Map<String, ClassProfile> allClasses = appProfile.getAllClasses();
+            out.writeInt(allClasses.size());
+            for (ClassProfile cp: allClasses.values()) {
+                writeClassProfile(cp);
+                out.writeInt(cp.getInnerClasses().size());
+                for (InnerClassProfile icp: cp.getInnerClasses().values()) {
+                    writeClassProfile(icp);
+                }
+            }
+        }
+
+        private void writeClassProfile(BasicClassProfile cp) throws IOException {
+            writeString(cp.getName());
+            out.writeBoolean(cp.isEnum());
+            out.writeBoolean(cp.isInterface());
+            writeString(cp.getSuperClass());
+            writeIds(cp.getInterfaces(), cp.getSymbolTable());
+            writeIds(cp.getFieldTypes(), cp.getSymbolTable());
+            out.writeLong(cp.getBasicLevel0Hash());
+            writeString(cp.getLevel0FuzzyHash());
+
+            out.writeInt(cp.getMethodProfiles().size());
+            for (MethodProfile mp: cp.getMethodProfiles()) {
+                writeMethodProfile(mp);
+            }
+        }
+
+        private void writeMethodProfile(MethodProfile mp) throws IOException {
+            writeString(mp.getName());
+            writeString(mp.getClassName());
+            writeString(mp.getSubSignature());
+            writeString(mp.getReturnType());
+            writeIds(mp.getParameterTypeIds());
+            writeString(mp.getFuzzyDescriptor());
+            out.writeInt(mp.getStatementNum());
+            writeIds(mp.getInstructionIds());
+            writeIds(mp.getConstantStringIds());
+            writeIds(mp.getInvokedMethodIds());
+            out.writeLong(mp.getLevel0Hash());
+            out.writeLong(mp.getLevel1Hash());
+            out.writeLong(mp.getLevel2Hash());
+        }
+
+        private void writeIds(int[] l) throws IOException {
+            out.writeInt(l.length);
+            for (int id: l) {
+                out.writeInt(id);
+            }
+        }
+
+        private void writeIds(List<String> l, SymbolTable symbols) throws IOException {
+            writeIds(symbols.getIds(l));
+        }
+
+        private void writeChars(String s) throws IOException {
+            out.writeInt(s.length());
+            out.writeChars(s);
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer index = pool.get(s);
+            if (index != null) {
+                out.writeInt(index);
+            } else {
+                // a new string is announced by the next free index and followed by its chars
+                int next = pool.size();
+                pool.put(s, next);
+                out.writeInt(next);
+                writeChars(s);
+            }
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> pool = new ArrayList<>();
+        private final SymbolTable symbols = new SymbolTable();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        AppProfile readAppProfile() throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a MatchScope profile");
+            }
+            int version = in.readInt();
+            if (version != FEATURE_VERSION) {
+                throw new IOException("Unsupported profile feature version: " + version);
+            }
+            String apkPath = readString();
+            String packageName = readString();
+            String versionName = readString();
+            int versionCode = in.readInt();
+
+            int symbolNum = in.readInt();
+            for (int i = 0; i < symbolNum; i++) {
+                if (symbols.getId(readChars()) != i) {
+                    throw new IOException("Duplicated symbol: " + i);
+                }
+            }
+
+            int classNum = in.readInt();
+            Map<String, ClassProfile> allClasses = new HashMap<>(classNum * 2);
+            for (int i = 0; i < classNum; i++) {
+                ClassProfile cp = (ClassProfile) readClassProfile(false);
+                int innerClassNum = in.readInt();
+                for (int j = 0; j < innerClassNum; j++) {
+                    cp.updateClassProfile((InnerClassProfile) readClassProfile(true));
+                }
+                allClasses.put(cp.getName(), cp);
+            }
+            return new AppProfile(apkPath, packageName, versionName, versionCode, allClasses, symbols);
+        }
+
+        private BasicClassProfile readClassProfile(boolean inner) throws IOException {
+            String name = readString();
+            boolean isEnum = in.readBoolean();
+            boolean isInterface = in.readBoolean();
+            String superClass = readString();
+            List<String> interfaces = symbols.asList(readIds());
+            List<String> fieldTypes = symbols.asList(readIds());
+            long level0Hash = in.readLong();
+            String level0FuzzyHash = readString();
+
+            int methodNum = in.readInt();
+            List<MethodProfile> methodProfiles = new ArrayList<>(methodNum);
+            for (int i = 0; i < methodNum; i++) {
+                methodProfiles.add(readMethodProfile());
+            }
+
+            if (inner) {
+                return new InnerClassProfile(name, isEnum, isInterface, superClass, interfaces, fieldTypes,
+                        methodProfiles, level0Hash, level0FuzzyHash, symbols);
+            } else {
+                return new ClassProfile(name, isEnum, isInterface, superClass, interfaces, fieldTypes,
+                        methodProfiles, level0Hash, level0FuzzyHash, symbols);
+            }
+        }
+
+        private MethodProfile readMethodProfile() throws IOException {
+            String name = readString();
+            String className = readString();
+            String subSignature = readString();
+            String returnType = readString();
+            int[] parameterTypes = readIds();
+            String fuzzyDescriptor = readString();
+            int statementNum = in.readInt();
+            int[] instructions = readIds();
+            int[] constantStrings = readIds();
+            int[] invokedMethods = readIds();
+            long[] hashes = new long[3];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = in.readLong();
+            }
+            return new MethodProfile(name, className, subSignature, returnType, parameterTypes, fuzzyDescriptor,
+                    statementNum, instructions, constantStrings, invokedMethods, symbols, hashes);
+        }
+
+        private int[] readIds() throws IOException {
+            int[] l = new int[in.readInt()];
+            int symbolNum = symbols.size();
+            for (int i = 0; i < l.length; i++) {
+                l[i] = in.readInt();
+                if (l[i] < 0 || l[i] >= symbolNum) {
+                    throw new IOException("Corrupted symbol id: " + l[i]);
+                }
+            }
+            return l;
+        }
+
+        private String readChars() throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupted string length: " + length);
+            }
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = in.readChar();
+            }
+            return new String(chars);
+        }
+
+        private String readString() throws IOException {
+            int index = in.readInt();
+            if (index == -1) {
+                return null;
+            }
+            if (index < pool.size()) {
+                return pool.get(index);
+            }
+            if (index != pool.size()) {
+                throw new IOException("Corrupted string pool index: " + index);
+            }
+            String s = readChars();
+            pool.add(s);
+            return s;
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.matchscope.profile;
+
+public enum ProfilerBackend {
+    SOOT,
+    DEX,
+}
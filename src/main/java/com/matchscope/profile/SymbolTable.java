@@ -0,0 +1,73 @@
+package com.matchscope.profile;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-app dictionary of the type names, invoked methods, constant strings and instruction tokens of the profiles.
+// Every distinct string is stored once and the profiles keep int ids, which are turned back into text on access.
+// Ids are handed out in insertion order, classes are profiled concurrently so interning is thread safe.
+public class SymbolTable {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] symbols = new String[1024];
+    private int size = 0;
+
+    public int getId(String symbol) {
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(symbol);
+            if (id != null) {
+                return id;
+            }
+            String[] s = symbols;
+            if (size == s.length) {
+                s = Arrays.copyOf(s, s.length * 2);
+            }
+            s[size] = symbol;
+            symbols = s;
+            // the id is published only after the symbol is stored
+            ids.put(symbol, size);
+            return size++;
+        }
+    }
+
+    public int[] getIds(List<String> l) {
+        int[] ret = new int[l.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = getId(l.get(i));
+        }
+        return ret;
+    }
+
+    public String getSymbol(int id) {
+        return symbols[id];
+    }
+
+    // returns the shared instance of the string
+    public String intern(String symbol) {
+        return symbol == null ? null : getSymbol(getId(symbol));
+    }
+
+    // read-only view of the ids as strings, nothing is copied
+    public List<String> asList(int[] l) {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return getSymbol(l[index]);
+            }
+
+            @Override
+            public int size() {
+                return l.length;
+            }
+        };
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
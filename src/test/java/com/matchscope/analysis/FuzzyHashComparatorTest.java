@@ -0,0 +1,145 @@
+package com.matchscope.analysis;
+
+import com.matchscope.profile.FuzzyHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Scores of the bit-parallel kernel and of the banded fallback against a plain Levenshtein dp on random digests.
+// The digests use small alphabets, so they share 7-grams and runs of a character are shortened by FuzzyHash.
+public class FuzzyHashComparatorTest {
+    private static final double[] THRESHOLDS = {0, 0.1, 0.3, 0.5, 0.6, 0.8, 1};
+
+    @Test
+    public void scoreMatchesLevenshtein() {
+        Random random = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            String a = randomDigest(random, 64);
+            String b = random.nextBoolean() ? mutate(a, random) : randomDigest(random, 64);
+            // the second digests never match, only the first ones are scored
+            FuzzyHash h1 = new FuzzyHash("3:" + a + ":x");
+            FuzzyHash h2 = new FuzzyHash("3:" + b + ":y");
+            double expected = expectedScore(h1.getDigest1(), h2.getDigest1());
+            for (double threshold: THRESHOLDS) {
+                double score = FuzzyHashComparator.score(h1, h2, threshold);
+                String message = h1.getDigest1() + " " + h2.getDigest1() + " " + threshold;
+                if (expected >= threshold) {
+                    assertEquals(expected, score, 1e-9, message);
+                } else {
+                    assertTrue(score < threshold, message);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void scoreAllMatchesScore() {
+        Random random = new Random(5);
+        for (int i = 0; i < 500; i++) {
+            FuzzyHash h = new FuzzyHash("6:" + randomDigest(random, 64) + ":" + randomDigest(random, 32));
+            List<FuzzyHash> candidates = new ArrayList<>();
+            for (int j = 0; j < 20; j++) {
+                int blockSize = new int[]{3, 6, 12, 24}[random.nextInt(4)];
+                candidates.add(new FuzzyHash(blockSize + ":" + randomDigest(random, 64) + ":" + randomDigest(random, 32)));
+            }
+            double threshold = THRESHOLDS[random.nextInt(THRESHOLDS.length)];
+            double[] scores = FuzzyHashComparator.scoreAll(h, candidates, threshold);
+            for (int j = 0; j < candidates.size(); j++) {
+                assertEquals(FuzzyHashComparator.score(h, candidates.get(j), threshold), scores[j], 0);
+            }
+        }
+    }
+
+    @Test
+    public void boundedLevenshteinMatchesLevenshtein() {
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            // longer than the 64 characters of the bit-parallel kernel as well
+            String a = randomDigest(random, 100);
+            String b = random.nextBoolean() ? mutate(a, random) : randomDigest(random, 100);
+            int distance = levenshtein(a, b);
+            int bound = random.nextInt(Math.max(a.length(), b.length()) + 1);
+            int bounded = BasicComparator.boundedLevenshteinDistance(a, b, bound);
+            if (distance <= bound) {
+                assertEquals(distance, bounded, a + " " + b + " " + bound);
+            } else {
+                assertEquals(bound + 1, bounded, a + " " + b + " " + bound);
+            }
+        }
+    }
+
+    // the ssdeep score of two digests of the same block size
+    private static double expectedScore(String d1, String d2) {
+        if (d1.equals(d2)) {
+            return 1;
+        }
+        if (d1.length() >= FuzzyHash.GRAM_SIZE && d2.length() >= FuzzyHash.GRAM_SIZE && !shareGram(d1, d2)) {
+            return 0;
+        }
+        return 1 - (double) levenshtein(d1, d2) / Math.max(d1.length(), d2.length());
+    }
+
+    private static boolean shareGram(String d1, String d2) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + FuzzyHash.GRAM_SIZE <= d1.length(); i++) {
+            grams.add(d1.substring(i, i + FuzzyHash.GRAM_SIZE));
+        }
+        for (int i = 0; i + FuzzyHash.GRAM_SIZE <= d2.length(); i++) {
+            if (grams.contains(d2.substring(i, i + FuzzyHash.GRAM_SIZE))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int levenshtein(String s, String t) {
+        int[][] d = new int[s.length() + 1][t.length() + 1];
+        for (int i = 0; i <= s.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= t.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= s.length(); i++) {
+            for (int j = 1; j <= t.length(); j++) {
+                int substitution = d[i - 1][j - 1] + (s.charAt(i - 1) == t.charAt(j - 1) ? 0 : 1);
+                d[i][j] = Math.min(substitution, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+            }
+        }
+        return d[s.length()][t.length()];
+    }
+
+    static String randomDigest(Random random, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        // two or five letters, so digests share grams and contain runs
+        String alphabet = random.nextBoolean() ? "AB" : "ABCDE";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    // a few insertions, deletions and substitutions of s
+    static String mutate(String s, Random random) {
+        StringBuilder sb = new StringBuilder(s);
+        int edits = random.nextInt(6);
+        for (int i = 0; i < edits; i++) {
+            int pos = random.nextInt(sb.length() + 1);
+            char c = "ABCDE".charAt(random.nextInt(5));
+            int op = random.nextInt(3);
+            if (op == 0 || sb.length() == 0) {
+                sb.insert(pos, c);
+            } else if (pos == sb.length()) {
+                sb.deleteCharAt(pos - 1);
+            } else if (op == 1) {
+                sb.deleteCharAt(pos);
+            } else {
+                sb.setCharAt(pos, c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.matchscope.analysis;
+
+import com.matchscope.profile.FuzzyHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The index must find every item an exhaustive scoring loop finds, in the order the items were added.
+public class FuzzyHashIndexTest {
+    private static final int[] BLOCK_SIZES = {3, 6, 12, 24};
+
+    @Test
+    public void getSimilarMatchesExhaustiveScoring() {
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            List<FuzzyHash> hashes = new ArrayList<>();
+            FuzzyHashIndex<Integer> index = new FuzzyHashIndex<>();
+            for (int j = 0; j < 60; j++) {
+                FuzzyHash h = randomHash(random);
+                hashes.add(h);
+                index.add(j, h);
+            }
+            for (int q = 0; q < 30; q++) {
+                // queries are variants of indexed hashes or new ones
+                FuzzyHash query = random.nextBoolean() ? randomHash(random) : mutate(hashes.get(random.nextInt(hashes.size())), random);
+                double threshold = 0.1 + random.nextInt(9) / 10.0;
+                List<Integer> expected = new ArrayList<>();
+                Map<Integer, Double> expectedScores = new LinkedHashMap<>();
+                for (int j = 0; j < hashes.size(); j++) {
+                    double score = FuzzyHashComparator.score(query, hashes.get(j), threshold);
+                    if (score >= threshold) {
+                        expected.add(j);
+                        expectedScores.put(j, score);
+                    }
+                }
+                assertEquals(expected, index.getSimilar(query, threshold));
+                assertEquals(expectedScores, index.getScores(query, threshold));
+            }
+        }
+    }
+
+    @Test
+    public void candidatesContainEveryPositiveScore() {
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            List<FuzzyHash> hashes = new ArrayList<>();
+            FuzzyHashIndex<Integer> index = new FuzzyHashIndex<>();
+            for (int j = 0; j < 60; j++) {
+                FuzzyHash h = randomHash(random);
+                hashes.add(h);
+                index.add(j, h);
+            }
+            FuzzyHash query = randomHash(random);
+            Set<Integer> candidates = new HashSet<>(index.getCandidates(query));
+            for (int j = 0; j < hashes.size(); j++) {
+                if (FuzzyHashComparator.score(query, hashes.get(j)) > 0) {
+                    assertTrue(candidates.contains(j), query.getHash() + " " + hashes.get(j).getHash());
+                }
+            }
+        }
+    }
+
+    private static FuzzyHash randomHash(Random random) {
+        int blockSize = BLOCK_SIZES[random.nextInt(BLOCK_SIZES.length)];
+        // short digests are compared without the 7-gram check, so they are generated as well
+        return new FuzzyHash(blockSize + ":" + FuzzyHashComparatorTest.randomDigest(random, 24) + ":"
+                + FuzzyHashComparatorTest.randomDigest(random, 12));
+    }
+
+    private static FuzzyHash mutate(FuzzyHash h, Random random) {
+        return new FuzzyHash(h.getBlockSize() + ":" + FuzzyHashComparatorTest.mutate(h.getDigest1(), random) + ":"
+                + FuzzyHashComparatorTest.mutate(h.getDigest2(), random));
+    }
+}
@@ -0,0 +1,122 @@
+package com.matchscope.analysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The assignment is compared with a brute-force maximum-weight matching on small random graphs. Weights are
+// multiples of 1/8, so the totals are exact and ties are frequent.
+public class SparseAssignmentTest {
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(17);
+        for (int i = 0; i < 3000; i++) {
+            int sourceNum = 1 + random.nextInt(6);
+            int targetNum = 1 + random.nextInt(6);
+            // the best weight of every pair, 0 if there is no edge
+            double[][] weights = new double[sourceNum][targetNum];
+            SparseAssignment assignment = new SparseAssignment(sourceNum, targetNum);
+            int edgeNum = random.nextInt(sourceNum * targetNum * 2 + 1);
+            for (int e = 0; e < edgeNum; e++) {
+                int s = random.nextInt(sourceNum);
+                int t = random.nextInt(targetNum);
+                // duplicate edges and edges of weight 0 are added as well
+                double weight = random.nextInt(9) / 8.0;
+                assignment.addEdge(s, t, weight);
+                weights[s][t] = Math.max(weights[s][t], weight);
+            }
+            int[] assigned = assignment.solve();
+            assertEquals(sourceNum, assigned.length);
+            assertEquals(bruteForce(weights, 0, new boolean[targetNum]), getTotal(weights, assigned), 1e-9,
+                    Arrays.deepToString(weights));
+        }
+    }
+
+    @Test
+    public void noEdges() {
+        SparseAssignment assignment = new SparseAssignment(3, 2);
+        assignment.addEdge(0, 1, 0);
+        assignment.addEdge(2, 0, -0.5);
+        assertArrayEquals(new int[]{-1, -1, -1}, assignment.solve());
+    }
+
+    @Test
+    public void unmatchedSources() {
+        // three sources compete for one target, the best one gets it
+        SparseAssignment assignment = new SparseAssignment(3, 1);
+        assignment.addEdge(0, 0, 0.5);
+        assignment.addEdge(1, 0, 0.9);
+        assignment.addEdge(2, 0, 0.7);
+        assertArrayEquals(new int[]{-1, 0, -1}, assignment.solve());
+    }
+
+    @Test
+    public void duplicateEdgesUseTheBestWeight() {
+        SparseAssignment assignment = new SparseAssignment(2, 2);
+        assignment.addEdge(0, 0, 0.2);
+        assignment.addEdge(0, 0, 0.9);
+        // with the first edge only, 0 -> 1 and 1 -> 0 would be better
+        assignment.addEdge(0, 1, 0.1);
+        assignment.addEdge(1, 0, 0.6);
+        assertArrayEquals(new int[]{0, -1}, assignment.solve());
+    }
+
+    @Test
+    public void longAugmentingChain() {
+        // source i prefers target i, the last source only fits target 0. Assigning it moves every earlier
+        // source one target to the right, which is better than leaving the last source unmatched.
+        int n = 200;
+        SparseAssignment assignment = new SparseAssignment(n, n);
+        for (int i = 0; i < n - 1; i++) {
+            assignment.addEdge(i, i, 1.0);
+            assignment.addEdge(i, i + 1, 0.999);
+        }
+        assignment.addEdge(n - 1, 0, 1.0);
+        int[] assigned = assignment.solve();
+        for (int i = 0; i < n - 1; i++) {
+            assertEquals(i + 1, assigned[i]);
+        }
+        assertEquals(0, assigned[n - 1]);
+    }
+
+    @Test
+    public void outOfRangeEdge() {
+        SparseAssignment assignment = new SparseAssignment(2, 2);
+        assertThrows(IndexOutOfBoundsException.class, () -> assignment.addEdge(2, 0, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> assignment.addEdge(0, -1, 1));
+    }
+
+    // the total weight of the assignment, which must be one-to-one and only use edges
+    private static double getTotal(double[][] weights, int[] assigned) {
+        Set<Integer> used = new HashSet<>();
+        double total = 0;
+        for (int s = 0; s < assigned.length; s++) {
+            int t = assigned[s];
+            if (t < 0) {
+                continue;
+            }
+            assertTrue(used.add(t), "target " + t + " assigned twice");
+            assertTrue(weights[s][t] > 0, "no edge " + s + " -> " + t);
+            total += weights[s][t];
+        }
+        return total;
+    }
+
+    private static double bruteForce(double[][] weights, int source, boolean[] used) {
+        if (source == weights.length) {
+            return 0;
+        }
+        double best = bruteForce(weights, source + 1, used);
+        for (int t = 0; t < used.length; t++) {
+            if (!used[t] && weights[source][t] > 0) {
+                used[t] = true;
+                best = Math.max(best, weights[source][t] + bruteForce(weights, source + 1, used));
+                used[t] = false;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,43 @@
+package com.matchscope.profile;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProfileSerializerTest {
+
+    @Test
+    public void stringsRoundTrip() throws IOException {
+        // unpaired surrogates, a valid pair, a nul and an empty string, as found in constant strings of obfuscated apps
+        List<String> constantStrings = Arrays.asList("\uD800", "\uDC00", "a\uD83D\uDE00b", "\u0000", "", "x\uDBFFy");
+        SymbolTable symbols = new SymbolTable();
+        MethodProfile mp = new MethodProfile("m", "a", "void m()", "void", Collections.emptyList(), 1,
+                Collections.singletonList("return"), constantStrings, Collections.emptyList(), symbols);
+        // a class with no package is fully obfuscated without looking at the wordlist
+        ClassProfile cp = new ClassProfile("a", false, false, "java.lang.Object", Collections.emptyList(),
+                Collections.emptyList(), Collections.singletonList(mp), 1, "3:abc:def", symbols);
+        Map<String, ClassProfile> classes = new HashMap<>();
+        classes.put(cp.getName(), cp);
+        AppProfile appProfile = new AppProfile("app.apk", "com.example\uD800", "1.0", 1, classes, symbols);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProfileSerializer.write(appProfile, out);
+        AppProfile restored = ProfileSerializer.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(appProfile.getPackageName(), restored.getPackageName());
+        SymbolTable restoredSymbols = restored.getSymbolTable();
+        assertEquals(symbols.size(), restoredSymbols.size());
+        for (int i = 0; i < symbols.size(); i++) {
+            assertEquals(symbols.getSymbol(i), restoredSymbols.getSymbol(i));
+        }
+        ClassProfile restoredClass = restored.getAllClasses().get("a");
+        assertEquals(cp.getConstantStrings(), restoredClass.getConstantStrings());
+        assertEquals(constantStrings, restoredClass.getMethodProfiles().get(0).getConstantStrings());
+        assertArrayEquals(cp.getFeatureSet(), restoredClass.getFeatureSet());
+    }
+}